@@ -3,10 +3,13 @@ package io.github.apfelcreme.Pipes.Command;
 import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
 import io.github.apfelcreme.Pipes.Manager.PipeManager;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeBlockSet;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import org.bukkit.command.CommandSender;
 
+import java.util.Set;
+
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
  * <p>
@@ -36,19 +39,36 @@ public class MonitorCommand implements SubCommand {
     @Override
     public void execute(final CommandSender commandSender, String[] strings) {
         if (commandSender.hasPermission("Pipes.monitor")) {
-            Pipes.sendMessage(commandSender, PipesConfig.getText("info.monitor.pipes",
+            Set<Pipe> pipes = PipeManager.getInstance().getCachedPipes();
+            int blocks = 0;
+            long hashedBytes = 0;
+            long bytes = 0;
+            for (Pipe pipe : pipes) {
+                blocks += pipe.getPipeBlocks().size();
+                hashedBytes += PipeBlockSet.getHashedMemoryUsage(pipe.getPipeBlocks().size());
+                bytes += pipe.getPipeBlocks().getMemoryUsage();
+            }
+            Pipes.sendMessage(commandSender, PipesConfig.getText("info.monitor.cache",
                     String.valueOf(PipeManager.getInstance().getPipeCache().size()),
-                    String.valueOf(PipeManager.getInstance().getSingleCache().size()),
+                    String.valueOf(blocks),
                     String.valueOf(PipeManager.getInstance().getMultiCache().size()),
                     String.valueOf(PipeManager.getInstance().getPipePartCache().size())
             ));
+            if (!pipes.isEmpty()) {
+                Pipes.sendMessage(commandSender, PipesConfig.getText("info.monitor.memory",
+                        String.valueOf(hashedBytes / pipes.size()),
+                        String.valueOf(bytes / pipes.size())));
+            }
 
             if (ItemMoveScheduler.getInstance().isActive()) {
                 Pipes.sendMessage(commandSender, PipesConfig.getText("info.monitor.schedulerActive",
-                        String.valueOf(ItemMoveScheduler.getInstance().getTransfers().size())));
+                        String.valueOf(ItemMoveScheduler.getInstance().getTransferCount()),
+                        String.valueOf(ItemMoveScheduler.getInstance().getDormantCount())));
             } else {
                 Pipes.sendMessage(commandSender, PipesConfig.getText("info.monitor.schedulerNotActive"));
             }
+            Pipes.sendMessage(commandSender, PipesConfig.getText("info.monitor.avoidedUpdates",
+                    String.valueOf(ItemMoveScheduler.getInstance().getAvoidedUpdates())));
             Pipes.sendMessage(commandSender, PipesConfig.getText("info.monitor.version",
                     Pipes.getInstance().getDescription().getVersion()));
         } else {
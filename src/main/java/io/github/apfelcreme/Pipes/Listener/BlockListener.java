@@ -7,12 +7,14 @@ import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
 import io.github.apfelcreme.Pipes.Exception.LocationException;
 import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
 import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
+import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
 import io.github.apfelcreme.Pipes.Manager.PipeManager;
 import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
 import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
 import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesItem;
@@ -75,15 +77,25 @@ public class BlockListener implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onItemDispense(BlockDispenseEvent event) {
-        if (!(event instanceof PipeDispenseEvent) && PipesUtil.getPipesItem(event.getBlock()) != null) {
+        if (event instanceof PipeDispenseEvent) {
+            return;
+        }
+        Block block = event.getBlock();
+        if (!PipeManager.getInstance().isIndexedPart(block.getWorld(), block.getX(), block.getY(), block.getZ())) {
+            return;
+        }
+        if (PipesUtil.getPipesItem(block) != null) {
             event.setCancelled(true);
+        } else {
+            PipeManager.getInstance().unindexPart(block);
         }
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onItemMove(InventoryMoveItemEvent event) {
         if (event.getDestination().getType() != InventoryType.HOPPER // hoppers are allowed to remove items from the output
-                && event.getSource().getType() != InventoryType.HOPPER) {
+                && event.getSource().getType() != InventoryType.HOPPER
+                && PipeManager.getInstance().isIndexedPart(event.getSource().getLocation())) {
             InventoryHolder holder = event.getSource().getHolder(false);
             if (holder instanceof BlockState && PipesItem.PIPE_OUTPUT.check((BlockState) holder)) {
                 event.setCancelled(true);
@@ -94,6 +106,9 @@ public class BlockListener implements Listener {
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     public void onBlockBreak(BlockBreakEvent event) {
         AbstractPipePart pipePart = PipeManager.getInstance().getPipePart(event.getBlock());
+        if (pipePart != null || MaterialTags.STAINED_GLASS.isTagged(event.getBlock())) {
+            PipeManager.getInstance().onPipeBlockChange(new SimpleLocation(event.getBlock().getLocation()));
+        }
         if (pipePart != null) {
             if (new PipeBlockBreakEvent(event.getBlock(), event.getPlayer(), pipePart).callEvent()) {
                 Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(event.getBlock(), true);
@@ -108,13 +123,35 @@ public class BlockListener implements Listener {
         } else if (MaterialTags.STAINED_GLASS.isTagged(event.getBlock())) {
             Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(event.getBlock(), true);
             if (!pipes.isEmpty()) {
+                SimpleLocation location = new SimpleLocation(event.getBlock().getLocation());
                 for (Pipe pipe : new ArrayList<>(pipes)) {
-                    PipeManager.getInstance().removePipe(pipe);
+                    PipeManager.getInstance().removeBlock(pipe, location);
                 }
             }
         }
     }
 
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockBroken(BlockBreakEvent event) {
+        PipeManager.getInstance().unindexPart(event.getBlock());
+        SimpleLocation location = new SimpleLocation(event.getBlock().getLocation());
+        PipeManager.getInstance().invalidateHolders(location);
+        if (ItemMoveScheduler.getInstance().hasDormant()) {
+            // Inputs might wait on the broken block as a target
+            ItemMoveScheduler.getInstance().wakeTarget(location);
+        }
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockPlaced(BlockPlaceEvent event) {
+        SimpleLocation location = new SimpleLocation(event.getBlock().getLocation());
+        PipeManager.getInstance().invalidateHolders(location);
+        if (ItemMoveScheduler.getInstance().hasDormant()) {
+            // A new target might accept the items of inputs that wait on its location
+            ItemMoveScheduler.getInstance().wakeTarget(location);
+        }
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void onBlockBreakDrop(BlockDropItemEvent event) {
         AbstractPipePart pipePart = PipeManager.getInstance().getPipePart(event.getBlockState());
@@ -132,6 +169,9 @@ public class BlockListener implements Listener {
     public void onBlockPlace(BlockPlaceEvent event) {
         try {
             PipesItem pipesItem = PipesUtil.getPipesItem(event.getItemInHand());
+            if (pipesItem != null || MaterialTags.STAINED_GLASS.isTagged(event.getBlock())) {
+                PipeManager.getInstance().onPipeBlockChange(new SimpleLocation(event.getBlock().getLocation()));
+            }
             if (pipesItem != null) {
                 if (pipesItem == PipesItem.CHUNK_LOADER && !event.getPlayer().hasPermission("Pipes.placeChunkLoader")) {
                     Pipes.sendMessage(event.getPlayer(), PipesConfig.getText("error.noPermission"));
@@ -208,7 +248,10 @@ public class BlockListener implements Listener {
                 if (found.size() == 1) {
                     PipeManager.getInstance().addBlock(found.iterator().next(), event.getBlock());
                 } else if (found.size() > 1) {
-                    PipeManager.getInstance().mergePipes(found);
+                    Pipe merged = PipeManager.getInstance().mergePipes(found);
+                    if (merged != null) {
+                        PipeManager.getInstance().addBlock(merged, event.getBlock());
+                    }
                 } else {
                     try {
                         for (Pipe pipe : PipeManager.getInstance().getPipes(event.getBlock())) {
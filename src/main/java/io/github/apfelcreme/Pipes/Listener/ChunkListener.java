@@ -0,0 +1,63 @@
+package io.github.apfelcreme.Pipes.Listener;
+
+/*
+ * Pipes
+ * Copyright (c) 2021 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
+import io.github.apfelcreme.Pipes.Manager.PipeManager;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+public class ChunkListener implements Listener {
+    private final Pipes plugin;
+
+    public ChunkListener(Pipes plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        PipeManager.getInstance().indexChunk(event.getChunk());
+        PipeManager.getInstance().onChunkChange(event.getWorld().getName(), event.getChunk().getChunkKey(), true);
+        PipeManager.getInstance().resetFailedLookups(event.getWorld().getName(), event.getChunk().getChunkKey());
+        ItemMoveScheduler.getInstance().resumeChunk(event.getWorld().getName(), event.getChunk().getChunkKey());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        PipeManager.getInstance().onChunkChange(event.getWorld().getName(), event.getChunk().getChunkKey(), false);
+        PipeManager.getInstance().evictChunk(event.getWorld().getName(), event.getChunk().getChunkKey());
+        PipeManager.getInstance().invalidateHolders(event.getWorld().getName(), event.getChunk().getChunkKey());
+        PipeManager.getInstance().unindexChunk(event.getChunk());
+        ItemMoveScheduler.getInstance().parkChunk(event.getWorld().getName(), event.getChunk().getChunkKey());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        ItemMoveScheduler.getInstance().parkWorld(event.getWorld().getName());
+        SimpleLocation.invalidateWorlds();
+        // the world is still registered while the event runs, drop it again after it was actually removed
+        plugin.getServer().getScheduler().runTask(plugin, SimpleLocation::invalidateWorlds);
+    }
+}
@@ -2,18 +2,27 @@ package io.github.apfelcreme.Pipes.Listener;
 
 import de.themoep.inventorygui.InventoryGui;
 import io.github.apfelcreme.Pipes.Manager.PipeManager;
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
 import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
 import io.github.apfelcreme.Pipes.PipesItem;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
+import org.bukkit.block.DoubleChest;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.BrewEvent;
+import org.bukkit.event.inventory.FurnaceBurnEvent;
+import org.bukkit.event.inventory.FurnaceSmeltEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.inventory.DoubleChestInventory;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 
@@ -47,11 +56,38 @@ public class InventoryChangeListener implements Listener {
 
     @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
     public void onInventoryItemMove(final InventoryMoveItemEvent event) {
+        if (!PipeManager.getInstance().isIndexedPart(event.getDestination().getLocation())) {
+            return;
+        }
         if (!handleInventoryAction(event.getDestination(), true)) {
             event.setCancelled(true);
         }
     }
 
+    /**
+     * wakes up inputs that wait on the source inventory of an item move and
+     * updates the filter of outputs whose inventory changed
+     *
+     * @param event the event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryItemMoveMonitor(InventoryMoveItemEvent event) {
+        if (ItemMoveScheduler.getInstance().hasDormant()) {
+            wakeTarget(event.getSource());
+        }
+        handleFilterChange(event.getSource().getLocation());
+        handleFilterChange(event.getDestination().getLocation());
+    }
+
+    private void handleFilterChange(Location location) {
+        if (PipeManager.getInstance().isIndexedPart(location)) {
+            AbstractPipePart pipePart = PipeManager.getInstance().getCachedPipePart(new SimpleLocation(location));
+            if (pipePart instanceof PipeOutput) {
+                PipeManager.getInstance().onPartChanged(pipePart);
+            }
+        }
+    }
+
     /**
      * gets fired on every inventory close
      *
@@ -62,10 +98,85 @@ public class InventoryChangeListener implements Listener {
         handleInventoryAction(event.getInventory(), false);
     }
 
+    /**
+     * wakes up inputs that wait on a closed inventory, a player might have taken items out of it
+     * or changed the filter of an output
+     *
+     * @param event the event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryCloseMonitor(InventoryCloseEvent event) {
+        InventoryHolder holder = event.getInventory().getHolder(false);
+        if (holder instanceof InventoryGui.Holder) {
+            holder = ((InventoryGui.Holder) holder).getGui().getOwner();
+        }
+        if (holder instanceof BlockState && PipesItem.PIPE_OUTPUT.check((BlockState) holder)) {
+            AbstractPipePart pipePart = PipeManager.getInstance().getCachedPipePart(new SimpleLocation(((BlockState) holder).getLocation()));
+            if (pipePart != null) {
+                PipeManager.getInstance().onPartChanged(pipePart);
+            }
+        }
+        if (ItemMoveScheduler.getInstance().hasDormant()) {
+            wakeTarget(holder);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFurnaceSmelt(FurnaceSmeltEvent event) {
+        wakeTarget(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFurnaceBurn(FurnaceBurnEvent event) {
+        wakeTarget(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBrew(BrewEvent event) {
+        wakeTarget(event.getBlock());
+    }
+
+    /**
+     * Wake up the inputs that wait on the block of an inventory holder
+     * @param holder The inventory holder, both sides are woken for double chests
+     */
+    private void wakeTarget(InventoryHolder holder) {
+        if (holder instanceof DoubleChest) {
+            wakeTarget(((DoubleChest) holder).getLeftSide());
+            wakeTarget(((DoubleChest) holder).getRightSide());
+        } else if (holder instanceof BlockState) {
+            ItemMoveScheduler.getInstance().wakeTarget(new SimpleLocation(((BlockState) holder).getLocation()));
+        }
+    }
+
+    /**
+     * Wake up the inputs that wait on the block of an inventory. This only uses the inventory's
+     * location so that no block state is created for inventories that nothing waits on.
+     * @param inventory The inventory, both sides are woken for double chests
+     */
+    private void wakeTarget(Inventory inventory) {
+        if (inventory instanceof DoubleChestInventory) {
+            wakeTarget(((DoubleChestInventory) inventory).getLeftSide());
+            wakeTarget(((DoubleChestInventory) inventory).getRightSide());
+        } else {
+            Location location = inventory.getLocation();
+            if (location != null && location.getWorld() != null) {
+                ItemMoveScheduler.getInstance().wakeTarget(location.getWorld().getName(),
+                        SimpleLocation.getBlockKey(location.getBlockX(), location.getBlockY(), location.getBlockZ()));
+            }
+        }
+    }
+
+    private void wakeTarget(Block block) {
+        if (ItemMoveScheduler.getInstance().hasDormant()) {
+            ItemMoveScheduler.getInstance().wakeTarget(new SimpleLocation(block.getLocation()));
+        }
+    }
+
     /**
      * Handle an inventory action
      * @param inventory The inventory
-     * @param scheduled Whether or not to add the scheduled task delayed by 2 ticks
+     * @param scheduled Whether or not to add the transfer delayed by 2 ticks, coalesced with other delayed transfers
      * @return <code>Wether or not something went wrong</code>
      */
     private boolean handleInventoryAction(Inventory inventory, boolean scheduled) {
@@ -90,7 +201,7 @@ public class InventoryChangeListener implements Listener {
         PipeInput pipeInput = pipes.iterator().next().getInput(dispenserLocation);
         if (pipeInput != null) {
             if (scheduled) {
-                plugin.getServer().getScheduler().runTaskLater(plugin, () -> ItemMoveScheduler.getInstance().add(dispenserLocation), 2);
+                ItemMoveScheduler.getInstance().addDelayed(dispenserLocation);
             } else {
                 ItemMoveScheduler.getInstance().add(dispenserLocation);
             }
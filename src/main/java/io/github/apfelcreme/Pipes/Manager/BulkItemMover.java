@@ -0,0 +1,250 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import io.github.apfelcreme.Pipes.PipesUtil;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Copyright 2021 Max Lee (https://github.com/Phoenix616/)
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Moves the items of one transfer cycle into plain storage targets like chests and barrels. The first stack that
+ * goes into a target is added normally, only when more stacks follow the storage contents of the target are read
+ * once, the stacks are merged into that array and the target is written back with a single
+ * {@link Inventory#setStorageContents(ItemStack[])} when the cycle gets flushed instead of letting
+ * {@link Inventory#addItem(ItemStack...)} scan the target again for every stack.
+ * If something else changed a target during the cycle (e.g. a listener of the move event) its contents
+ * aren't overwritten, the moved items get added to it normally and what doesn't fit goes back into the
+ * slots of the source that it came from.
+ */
+class BulkItemMover {
+
+    /**
+     * the inventory types without slot restrictions where adding to the storage contents
+     * behaves the same as {@link Inventory#addItem(ItemStack...)}
+     */
+    private static final Set<InventoryType> BULK_TYPES = EnumSet.of(
+            InventoryType.CHEST,
+            InventoryType.BARREL,
+            InventoryType.SHULKER_BOX,
+            InventoryType.DISPENSER,
+            InventoryType.DROPPER,
+            InventoryType.HOPPER
+    );
+
+    /**
+     * the locations of the inventories that got one stack added normally in the current cycle
+     */
+    private final Set<Location> direct = new HashSet<>();
+
+    /**
+     * the targets of the current cycle by the location of their inventory, both halves of a double chest share one
+     */
+    private final Map<Location, Target> targets = new HashMap<>();
+
+    /**
+     * Check whether or not items can be moved into an inventory with this mover
+     *
+     * @param inventory the target inventory
+     * @return <code>true</code> if the inventory is supported
+     */
+    static boolean supports(Inventory inventory) {
+        return BULK_TYPES.contains(inventory.getType()) && inventory.getLocation() != null;
+    }
+
+    /**
+     * returns the storage contents of a target including the items that were added in this cycle
+     *
+     * @param inventory the target inventory
+     * @return the storage contents, empty slots are <code>null</code>
+     */
+    ItemStack[] getContents(Inventory inventory) {
+        Target target = targets.get(inventory.getLocation());
+        return target != null ? target.contents : inventory.getStorageContents();
+    }
+
+    /**
+     * Add an item stack to a target. The same way as {@link Inventory#addItem(ItemStack...)} partial stacks
+     * are filled up first, the rest is put into empty slots. The amount of the stack gets set to what didn't fit.
+     *
+     * @param inventory  the target inventory
+     * @param itemStack  the item stack to add
+     * @param sourceSlot the slot of the source inventory that the items are taken from
+     */
+    void addItem(Inventory inventory, ItemStack itemStack, int sourceSlot) {
+        Target target = targets.get(inventory.getLocation());
+        if (target == null) {
+            if (direct.add(inventory.getLocation())) {
+                // Reading and writing the whole target is only worth it if more than one stack goes into it
+                PipesUtil.addItem(inventory, itemStack);
+                return;
+            }
+            target = new Target(inventory);
+            targets.put(inventory.getLocation(), target);
+        }
+        ItemStack[] contents = target.contents;
+        int maxStackSize = Math.min(target.maxStackSize, itemStack.getMaxStackSize());
+        int amount = itemStack.getAmount();
+        int before = amount;
+        for (int i = 0; i < contents.length && amount > 0; i++) {
+            ItemStack item = contents[i];
+            if (item != null && item.getAmount() < maxStackSize && item.isSimilar(itemStack)) {
+                int added = Math.min(amount, maxStackSize - item.getAmount());
+                if (!target.copied[i]) {
+                    // Don't change the stacks of the inventory itself until the cycle is flushed
+                    item = new ItemStack(item);
+                    contents[i] = item;
+                    target.copied[i] = true;
+                }
+                item.setAmount(item.getAmount() + added);
+                amount -= added;
+                target.changed = true;
+            }
+        }
+        for (int i = 0; i < contents.length && amount > 0; i++) {
+            if (contents[i] == null || contents[i].getType() == Material.AIR) {
+                ItemStack item = new ItemStack(itemStack);
+                item.setAmount(Math.min(amount, maxStackSize));
+                contents[i] = item;
+                target.copied[i] = true;
+                amount -= item.getAmount();
+                target.changed = true;
+            }
+        }
+        if (amount < before) {
+            ItemStack added = new ItemStack(itemStack);
+            added.setAmount(before - amount);
+            target.added.add(added);
+            target.addedSlots.add(sourceSlot);
+        }
+        itemStack.setAmount(amount);
+    }
+
+    /**
+     * Write the contents of all changed targets back to their inventories and start a new cycle. Targets whose
+     * live contents differ from what was read get the moved items added normally, what doesn't fit anymore
+     * goes back into the source.
+     *
+     * @param source the inventory that the items were moved from
+     */
+    void flush(Inventory source) {
+        for (Target target : targets.values()) {
+            if (!target.changed) {
+                continue;
+            }
+            if (target.isUnchanged()) {
+                target.inventory.setStorageContents(target.contents);
+                continue;
+            }
+            for (int i = 0; i < target.added.size(); i++) {
+                for (ItemStack rest : target.inventory.addItem(target.added.get(i)).values()) {
+                    giveBack(source, target.addedSlots.get(i), rest);
+                }
+            }
+        }
+        targets.clear();
+        direct.clear();
+    }
+
+    /**
+     * Put items back into the slot of the source that they were taken from
+     *
+     * @param source the source inventory
+     * @param slot   the slot the items came from
+     * @param items  the items
+     */
+    private static void giveBack(Inventory source, int slot, ItemStack items) {
+        ItemStack current = source.getItem(slot);
+        if (current == null || current.getType() == Material.AIR) {
+            source.setItem(slot, items);
+            return;
+        }
+        if (current.isSimilar(items)) {
+            int added = Math.min(items.getAmount(), Math.max(0, current.getMaxStackSize() - current.getAmount()));
+            current.setAmount(current.getAmount() + added);
+            source.setItem(slot, current);
+            items.setAmount(items.getAmount() - added);
+        }
+        if (items.getAmount() > 0) {
+            // Only happens if the slot was filled with something else during the cycle
+            source.addItem(items);
+        }
+    }
+
+    private static class Target {
+        private final Inventory inventory;
+        private final ItemStack[] contents;
+        private final Material[] originalTypes;
+        private final int[] originalAmounts;
+        private final boolean[] copied;
+        private final int maxStackSize;
+        private final List<ItemStack> added = new ArrayList<>();
+        private final List<Integer> addedSlots = new ArrayList<>();
+        private boolean changed = false;
+
+        private Target(Inventory inventory) {
+            this.inventory = inventory;
+            this.contents = inventory.getStorageContents();
+            this.originalTypes = new Material[contents.length];
+            this.originalAmounts = new int[contents.length];
+            for (int i = 0; i < contents.length; i++) {
+                if (contents[i] != null) {
+                    originalTypes[i] = contents[i].getType();
+                    originalAmounts[i] = contents[i].getAmount();
+                }
+            }
+            this.copied = new boolean[contents.length];
+            this.maxStackSize = inventory.getMaxStackSize();
+        }
+
+        /**
+         * Check whether or not the types and amounts in the inventory are still the same as when they were read
+         *
+         * @return <code>true</code> if nothing changed the inventory
+         */
+        private boolean isUnchanged() {
+            ItemStack[] live = inventory.getStorageContents();
+            if (live.length != originalTypes.length) {
+                return false;
+            }
+            for (int i = 0; i < live.length; i++) {
+                Material type = live[i] != null ? live[i].getType() : null;
+                int amount = live[i] != null ? live[i].getAmount() : 0;
+                if (type == Material.AIR) {
+                    type = null;
+                    amount = 0;
+                }
+                Material originalType = originalTypes[i] == Material.AIR ? null : originalTypes[i];
+                if (type != originalType || type != null && amount != originalAmounts[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
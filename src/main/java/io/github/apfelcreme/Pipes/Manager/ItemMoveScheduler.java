@@ -6,6 +6,7 @@ import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
 import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
 import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
 import io.github.apfelcreme.Pipes.LoopDetection.Detection;
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
 import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
@@ -13,10 +14,12 @@ import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
 import org.bukkit.Bukkit;
 import org.bukkit.Effect;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.Container;
@@ -34,14 +37,16 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -69,22 +74,62 @@ public class ItemMoveScheduler {
     private int taskId;
 
     /**
-     * the queue that holds the items that are waiting to be transferred
+     * the transfers that are waiting to be run, sharded by world and chunk
      */
-    private Set<SimpleLocation> scheduledItemTransfers;
+    private Map<String, Map<Long, TransferShard>> shards;
 
     /**
-     * item transfers that need to be added after the moves were run
+     * the transfers of loaded chunks ordered by the tick they are next due at
      */
-    private Set<SimpleLocation> addItemTransfers;
+    private PriorityQueue<ScheduledTransfer> dueTransfers;
 
     /**
-     * whether or not the scheduler is currently transferring
+     * inputs that couldn't move anything and wait for one of their targets to lose items, ordered by the time they fell asleep
      */
-    private boolean isTransferring;
+    private Map<SimpleLocation, DormantInput> dormantInputs;
 
     /**
-     * the number of consecutive runs without any transfers (cancels at 4)
+     * the dormant inputs by the block keys of the targets they are waiting on, by world name
+     */
+    private Map<String, Map<Long, Set<SimpleLocation>>> dormantByTarget;
+
+    /**
+     * block keys of inputs that should be added with the next flush, by world name
+     */
+    private Map<String, LongHashSet> delayedTransfers;
+
+    /**
+     * the task id of the task that flushes the delayed transfers, -1 if none is scheduled
+     */
+    private int flushTaskId;
+
+    /**
+     * reused buffer for the accept results of the routes of the stack that is currently moved
+     */
+    private PipeOutput.AcceptResult[] acceptResults = new PipeOutput.AcceptResult[0];
+
+    /**
+     * collects the items that the current transfer moves into plain storage targets
+     */
+    private final BulkItemMover bulkMover = new BulkItemMover();
+
+    /**
+     * the number of input updates that were skipped because nothing in the input changed
+     */
+    private long avoidedUpdates = 0;
+
+    /**
+     * the items that the pipe of the current transfer may still move according to its throughput limit
+     */
+    private int itemBudget = Integer.MAX_VALUE;
+
+    /**
+     * whether or not an output refused items of the current transfer because it was powered by redstone
+     */
+    private boolean redstoneBlocked = false;
+
+    /**
+     * the number of consecutive ticks without any due transfers (cancels after three cooldowns)
      */
     private int emptyRuns;
 
@@ -95,8 +140,12 @@ public class ItemMoveScheduler {
 
     private ItemMoveScheduler() {
         taskId = -1;
-        scheduledItemTransfers = new LinkedHashSet<>();
-        addItemTransfers = new LinkedHashSet<>();
+        shards = new HashMap<>();
+        dueTransfers = new PriorityQueue<>(Comparator.comparingInt(ScheduledTransfer::getNextTick));
+        dormantInputs = new LinkedHashMap<>();
+        dormantByTarget = new HashMap<>();
+        delayedTransfers = new HashMap<>();
+        flushTaskId = -1;
         emptyRuns = 0;
     }
 
@@ -116,34 +165,61 @@ public class ItemMoveScheduler {
      * starts a task
      */
     private void create() {
-        taskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncRepeatingTask(Pipes.getInstance(), () -> {
-            if (!scheduledItemTransfers.isEmpty()) {
-                isTransferring = true;
-                scheduledItemTransfers.removeIf(this::execute);
-                isTransferring = false;
-                addQueued();
-            } else {
-                emptyRuns++;
-                if (emptyRuns >= 3) {
-                    kill();
+        taskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncRepeatingTask(Pipes.getInstance(), this::run, 1L, 1L);
+    }
+
+    /**
+     * Runs all transfers that are due this tick. If a time budget is set then whatever doesn't fit into it
+     * stays due and is run first in the next tick.
+     */
+    private void run() {
+        wakeDue();
+        int now = Bukkit.getCurrentTick();
+        if (dueTransfers.isEmpty() || dueTransfers.peek().getNextTick() > now) {
+            emptyRuns++;
+            if (emptyRuns >= 3 * Math.max(1, PipesConfig.getTransferCooldown()) && dueTransfers.isEmpty() && dormantInputs.isEmpty()) {
+                kill();
+            }
+            return;
+        }
+        emptyRuns = 0;
+
+        long deadline = System.nanoTime() + PipesConfig.getTransferTimeBudget() * 1000;
+        while (!dueTransfers.isEmpty() && dueTransfers.peek().getNextTick() <= now) {
+            ScheduledTransfer transfer = dueTransfers.poll();
+            transfer.setQueued(false);
+            TransferShard shard = getShard(transfer.getLocation());
+            if (shard == null || shard.getTransfers().get(transfer.getLocation()) != transfer) {
+                // Transfer was removed in the meantime
+                continue;
+            }
+            if (shard.isParked()) {
+                // Stays in the shard and gets queued again when the chunk is loaded
+                continue;
+            }
+            if (execute(transfer.getLocation())) {
+                shard.getTransfers().remove(transfer.getLocation());
+                if (shard.getTransfers().isEmpty()) {
+                    removeShard(shard);
                 }
+            } else {
+                transfer.setNextTick(Math.max(transfer.getNextTick() + transfer.getCooldown(), now + 1));
+                queue(transfer);
             }
-        }, 20L, PipesConfig.getTransferCooldown());
+            if (PipesConfig.getTransferTimeBudget() > 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+        }
     }
 
     /**
-     * executes the item transfer
+     * executes the item transfer. The chunk of the input has to be loaded, transfers in unloaded chunks are
+     * parked with their shard and never get here.
      *
      * @param simpleLocation the location of the PipeInput
      * @return <code>true</code> if this transfer should be considered as completed and removed from the queue
      */
     public boolean execute(SimpleLocation simpleLocation) {
-        Location location = simpleLocation.getLocation();
-        if (location.getWorld() == null || !location.getWorld().isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4)) {
-            // Chunk is not loaded, cannot transfer items
-            return false;
-        }
-
         Pipe pipe;
         try {
             pipe = PipeManager.getInstance().getPipeByInput(simpleLocation);
@@ -152,21 +228,35 @@ public class ItemMoveScheduler {
             return false;
         }
         if (pipe == null) {
+            // The pipe is still searched in the background, try again later
+            if (PipeManager.getInstance().isDiscovering(simpleLocation)) {
+                return false;
+            }
             // No pipe at location? Remove the transfer
             return true;
         }
 
-        if (pipe.getLastTransfer() != Bukkit.getCurrentTick()) {
-            // Reset transfer count if no transfer occurred this tick
+        if (getTransferWindow(pipe.getLastTransfer()) != getTransferWindow(Bukkit.getCurrentTick())) {
+            // Reset transfer count if no transfer occurred in this cooldown window. The inputs of a pipe run in
+            // different ticks of the window, so counting per tick would never reach the limits.
             pipe.setTransfers(0);
         } else if (PipesConfig.getTransferCount() > 0 && pipe.getTransfers() >= PipesConfig.getTransferCount()) {
-            // Pipe already transferred more than the max transfer based on hard cap? Handle next tick
+            // Pipe already transferred more than the max transfer based on hard cap? Handle next window
             return false;
         } else if (PipesConfig.getInputToOutputRatio() > 0 && pipe.getTransfers() >= pipe.getOutputs().size() * PipesConfig.getInputToOutputRatio()) {
-            // Pipe already transferred more than the max transfer based on the input/output ratio? Handle next tick
+            // Pipe already transferred more than the max transfer based on the input/output ratio? Handle next window
+            return false;
+        }
+
+        int availableItems = pipe.getAvailableItems(Bukkit.getCurrentTick());
+        if (availableItems <= 0) {
+            // Pipe moved as many items as its throughput limit allows, try again without sleeping
             return false;
         }
 
+        // Block states cached in earlier cycles might belong to tile entities that were replaced since
+        AbstractPipePart.nextHolderCycle();
+
         PipeInput input = pipe.getInput(simpleLocation);
         if (input == null) {
             // Could not find an input at that location, to not recheck this transfer we return true
@@ -181,10 +271,16 @@ public class ItemMoveScheduler {
 
         Inventory inputInventory = inputHolder.getInventory();
         List<ItemStack> itemQueue = new ArrayList<>();
+        int[] itemSlots = new int[inputInventory.getSize()];
+        int amountBefore = 0;
+        int slot = 0;
         for (ItemStack itemStack : inputInventory) {
             if (itemStack != null) {
+                itemSlots[itemQueue.size()] = slot;
                 itemQueue.add(itemStack);
+                amountBefore += itemStack.getAmount();
             }
+            slot++;
         }
 
         // add the current transfer to all the running detections
@@ -194,25 +290,47 @@ public class ItemMoveScheduler {
 
         boolean transferedAnything = false;
         boolean transferredAll = true;
-        boolean spread = input.getOption(PipeInput.Options.SPREAD);
-        boolean overflow = input.getOption(PipeInput.Options.OVERFLOW);
+        boolean spread = input.getBoolean(PipeInput.Options.SPREAD);
+        boolean overflow = input.getBoolean(PipeInput.Options.OVERFLOW);
 
         // loop through all items and try to move them
+        BulkItemMover mover = PipesConfig.isBulkTransfers() ? bulkMover : null;
+        itemBudget = availableItems;
+        redstoneBlocked = false;
+        try {
+            for (int i = 0; i < itemQueue.size(); i++) {
+                if (itemBudget <= 0) {
+                    transferredAll = false;
+                    break;
+                }
+                transferedAnything |= moveItem(input, inputInventory, pipe, itemQueue.get(i), itemSlots[i], spread, overflow, mover);
+                transferredAll &= transferedAnything;
+            }
+        } finally {
+            if (mover != null) {
+                // The items already left the input, write them into their targets
+                mover.flush(inputInventory);
+            }
+        }
+
+        int amountAfter = 0;
         for (ItemStack itemStack : itemQueue) {
-            transferedAnything |= moveItem(input, inputInventory, pipe, itemStack, spread, overflow);
-            transferredAll &= transferedAnything;
+            amountAfter += Math.max(itemStack.getAmount(), 0);
         }
 
-        if (!transferredAll && input.getOption(PipeInput.Options.MERGE)) {
-            List<ItemStack> inputContents = Arrays.stream(inputInventory.getContents()).filter(Objects::nonNull).collect(Collectors.toList());
-            if (inputContents.size() > 1) {
-                inputInventory.clear();
-                for (ItemStack item : inputContents) {
-                    inputInventory.addItem(item);
-                }
-            }
+        boolean rateLimited = itemBudget <= 0;
+        pipe.consumeItems(availableItems - itemBudget);
+
+        // Only update the input's block if its inventory changed
+        boolean dirty = transferedAnything || amountAfter != amountBefore;
+        if (!transferredAll && input.getBoolean(PipeInput.Options.MERGE)) {
+            dirty |= PipesUtil.compactInventory(inputInventory);
+        }
+        if (dirty) {
+            inputHolder.update();
+        } else {
+            avoidedUpdates++;
         }
-        inputHolder.update();
 
         if (transferedAnything) {
             // Update transfers
@@ -220,55 +338,81 @@ public class ItemMoveScheduler {
             pipe.setLastTransfer(Bukkit.getCurrentTick());
         }
 
+        if (amountAfter < amountBefore) {
+            // Items left this input, inputs of other pipes that wait on it as a target can try again
+            wakeTarget(simpleLocation);
+        } else if (!transferredAll && !rateLimited && !redstoneBlocked && PipesConfig.getDormantTimeout() > 0) {
+            // Nothing could be moved, sleep until one of the targets loses items. Outputs that are blocked by
+            // redstone can open up without any target changing, those inputs keep trying every cycle instead.
+            sleep(simpleLocation, pipe);
+            return true;
+        }
+
         return transferredAll;
     }
 
-    private boolean moveItem(PipeInput input, Inventory inputInventory, Pipe pipe, ItemStack itemStack, boolean spread, boolean overflow) {
-        Map<PipeOutput, PipeOutput.AcceptResult> outputs = new LinkedHashMap<>();
+    private boolean moveItem(PipeInput input, Inventory inputInventory, Pipe pipe, ItemStack itemStack, int slot, boolean spread, boolean overflow, BulkItemMover mover) {
+        // The routes are cached by the pipe and already have the outputs that have the item in their filter first
+        List<Pipe.Route> routes = pipe.getRoutes(itemStack);
+        if (acceptResults.length < routes.size()) {
+            acceptResults = new PipeOutput.AcceptResult[routes.size()];
+        }
+        int outputCount = 0;
         int filterCount = 0;
-        for (PipeOutput output : pipe.getOutputs().values()) {
-            PipeOutput.AcceptResult acceptResult = output.accepts(input, itemStack);
+        for (int i = 0; i < routes.size(); i++) {
+            Pipe.Route route = routes.get(i);
+            PipeOutput.AcceptResult acceptResult = route.getOutput().accepts(input, route.getFilterResult());
+            if (acceptResult.getType() == PipeOutput.ResultType.DENY_REDSTONE) {
+                redstoneBlocked = true;
+            }
             if (!spread || acceptResult.getType() == PipeOutput.ResultType.ACCEPT) {
-                outputs.put(output, acceptResult);
+                acceptResults[i] = acceptResult;
+                outputCount++;
                 if (acceptResult.isInFilter()) {
                     filterCount++;
                 }
+            } else {
+                acceptResults[i] = null;
             }
         }
-        
-        if (outputs.isEmpty()) {
+
+        if (outputCount == 0) {
             return false;
         }
-        
-        outputs = outputs.entrySet().stream()
-                .sorted((e1, e2) -> e1.getValue().isInFilter() ? e2.getValue().isInFilter() ? 0 : -1 : e2.getValue().isInFilter() ? 1 : 0)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (oldValue, newValue) -> oldValue, LinkedHashMap::new));
 
         // Calculate amount that should be spread over the outputs (when in spread mode)
-        int spreadOver = filterCount > 0 ? filterCount : outputs.size();
+        int spreadOver = filterCount > 0 ? filterCount : outputCount;
         int spreadAmount = itemStack.getAmount() / spreadOver;
         if (spread && spreadAmount == 0) { // not enough items to spread over all outputs, return
             return false;
         }
 
         // loop through all outputs
-        for (Map.Entry<PipeOutput, PipeOutput.AcceptResult> entry : outputs.entrySet()) {
+        for (int i = 0; i < routes.size(); i++) {
+            if (acceptResults[i] == null) {
+                continue;
+            }
             // we don't need to move empty/already moved itemstacks
             if (itemStack.getAmount() <= 0) {
                 return true;
             }
+            // the pipe's throughput limit doesn't allow moving more items
+            if (itemBudget <= 0) {
+                return false;
+            }
 
-            PipeOutput output = entry.getKey();
+            PipeOutput output = routes.get(i).getOutput();
             // Don't allow looping back into input
             if (output.getTargetLocation().equals(input.getTargetLocation())) {
                 continue;
             }
-            Block targetBlock = output.getTargetLocation().getBlock();
+            Block targetBlock = output.getTargetBlock();
             InventoryHolder targetHolder = output.getTargetHolder();
             Inventory targetInventory = targetHolder != null ? targetHolder.getInventory() : null;
+            boolean bulk = mover != null && targetInventory != null && BulkItemMover.supports(targetInventory);
 
             ItemStack transferring = itemStack;
-            PipeOutput.AcceptResult acceptResult = entry.getValue();
+            PipeOutput.AcceptResult acceptResult = acceptResults[i];
 
             // Set the spread amount
             if (spread && spreadAmount < transferring.getAmount()) {
@@ -278,14 +422,22 @@ public class ItemMoveScheduler {
                 transferring.setAmount(spreadAmount);
             }
 
+            // Don't move more items than the throughput limit of the pipe allows
+            if (itemBudget < transferring.getAmount()) {
+                if (transferring == itemStack) {
+                    transferring = new ItemStack(transferring);
+                }
+                transferring.setAmount(itemBudget);
+            }
+
             // Check the target amount option
             if (targetInventory != null
                     && acceptResult.getType() == PipeOutput.ResultType.ACCEPT
                     && acceptResult.isInFilter()
-                    && output.getOption(PipeOutput.Options.WHITELIST)
-                    && output.getOption(PipeOutput.Options.TARGET_AMOUNT)) {
+                    && output.getBoolean(PipeOutput.Options.WHITELIST)
+                    && output.getBoolean(PipeOutput.Options.TARGET_AMOUNT)) {
                 int amountInTarget = 0;
-                for (ItemStack item : targetInventory) {
+                for (ItemStack item : bulk ? Arrays.asList(mover.getContents(targetInventory)) : targetInventory) {
                     if (output.matchesFilter(acceptResult.getFilterItem(), item)) {
                         amountInTarget += item.getAmount();
                         if (amountInTarget > acceptResult.getFilterItem().getAmount()) {
@@ -314,7 +466,8 @@ public class ItemMoveScheduler {
                 continue;
             }
 
-            if (output.getOption(PipeOutput.Options.DROP)) {
+            int transferAmount = transferring.getAmount();
+            if (output.getBoolean(PipeOutput.Options.DROP)) {
                 Location dropLocation = output.getTargetLocation().getLocation().add(0.5, 0.5, 0.5);
 
                 double speed = PipesUtil.RANDOM.nextDouble() * 0.1d + 0.2d;
@@ -346,7 +499,7 @@ public class ItemMoveScheduler {
                     continue;
                 }
 
-                boolean smartInsert = output.getOption(PipeOutput.Options.SMART_INSERT);
+                boolean smartInsert = output.getBoolean(PipeOutput.Options.SMART_INSERT);
 
                 switch (targetInventory.getType()) {
                     /*
@@ -457,14 +610,18 @@ public class ItemMoveScheduler {
                      */
                     default:
                         // for chests, dropper etc...
-                        PipesUtil.addItem(targetInventory, transferring);
+                        if (bulk) {
+                            mover.addItem(targetInventory, transferring, slot);
+                        } else {
+                            PipesUtil.addItem(targetInventory, transferring);
+                        }
                         break;
                     /*
                     END DEFAULT
                      */
                 }
             } else if (targetBlock.getType() == Material.COMPOSTER
-                    && (output.getFacing() == BlockFace.DOWN || output.getOption(PipeOutput.Options.SMART_INSERT))) {
+                    && (output.getFacing() == BlockFace.DOWN || output.getBoolean(PipeOutput.Options.SMART_INSERT))) {
                 double itemChance = PipesUtil.getCompostableChance(itemStack.getType());
                 if (itemChance > 0) {
                     Levelled composter = (Levelled) targetBlock.getBlockData();
@@ -483,6 +640,8 @@ public class ItemMoveScheduler {
                 }
             }
 
+            itemBudget -= transferAmount - Math.max(transferring.getAmount(), 0);
+
             if (itemStack != transferring) {
                 // Check if the item stack that we transferred is the one that was given to us.
                 // If not merge their amounts (this split can happen due to the amount filtering and spreading)
@@ -524,23 +683,341 @@ public class ItemMoveScheduler {
      */
     public void add(SimpleLocation scheduledItemTransfer) {
         emptyRuns = 0;
-        if (!isTransferring) {
-            scheduledItemTransfers.add(scheduledItemTransfer);
-        } else if (!scheduledItemTransfers.contains(scheduledItemTransfer)) {
-            addItemTransfers.add(scheduledItemTransfer);
+        if (!dormantInputs.isEmpty()) {
+            removeDormant(scheduledItemTransfer);
         }
-        if (!isActive() && (!scheduledItemTransfers.isEmpty() || !addItemTransfers.isEmpty())) {
+        addToShard(scheduledItemTransfer);
+        if (!isActive() && !dueTransfers.isEmpty()) {
             create();
         }
     }
 
-    private void addQueued() {
-        scheduledItemTransfers.addAll(addItemTransfers);
-        addItemTransfers.clear();
+    /**
+     * schedules an item move in 2 ticks. All inputs that are added until then are collected and
+     * added together so that many item moves into the same input only schedule it once.
+     *
+     * @param scheduledItemTransfer the item transfer
+     */
+    public void addDelayed(SimpleLocation scheduledItemTransfer) {
+        delayedTransfers.computeIfAbsent(scheduledItemTransfer.getWorldName(), w -> new LongHashSet()).add(scheduledItemTransfer.getBlockKey());
+        if (flushTaskId == -1) {
+            flushTaskId = Pipes.getInstance().getServer().getScheduler().runTaskLater(Pipes.getInstance(), this::flushDelayed, 2).getTaskId();
+        }
+    }
+
+    private void flushDelayed() {
+        flushTaskId = -1;
+        for (Map.Entry<String, LongHashSet> entry : delayedTransfers.entrySet()) {
+            entry.getValue().forEach(blockKey -> add(SimpleLocation.fromBlockKey(entry.getKey(), blockKey)));
+            entry.getValue().clear();
+        }
+    }
+
+    /**
+     * Put an input to sleep until one of the targets of the pipe's outputs loses items
+     *
+     * @param location the location of the input
+     * @param pipe     the pipe of the input
+     */
+    private void sleep(SimpleLocation location, Pipe pipe) {
+        List<SimpleLocation> targets = new ArrayList<>();
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            targets.add(output.getTargetLocation());
+            dormantByTarget.computeIfAbsent(output.getTargetLocation().getWorldName(), w -> new HashMap<>())
+                    .computeIfAbsent(output.getTargetLocation().getBlockKey(), t -> new LinkedHashSet<>()).add(location);
+        }
+        removeDormant(location);
+        dormantInputs.put(location, new DormantInput(location, targets, Bukkit.getCurrentTick()));
+    }
+
+    /**
+     * Remove an input from the dormant inputs and the target index
+     *
+     * @param location the location of the input
+     * @return <code>true</code> if the input was dormant
+     */
+    private boolean removeDormant(SimpleLocation location) {
+        DormantInput dormant = dormantInputs.remove(location);
+        if (dormant == null) {
+            return false;
+        }
+        unindexTargets(dormant);
+        return true;
+    }
+
+    private void unindexTargets(DormantInput dormant) {
+        for (SimpleLocation target : dormant.getTargets()) {
+            Map<Long, Set<SimpleLocation>> worldTargets = dormantByTarget.get(target.getWorldName());
+            Set<SimpleLocation> waiting = worldTargets != null ? worldTargets.get(target.getBlockKey()) : null;
+            if (waiting != null) {
+                waiting.remove(dormant.getLocation());
+                if (waiting.isEmpty()) {
+                    worldTargets.remove(target.getBlockKey());
+                    if (worldTargets.isEmpty()) {
+                        dormantByTarget.remove(target.getWorldName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wake up dormant inputs that slept longer than the dormant timeout, this catches changes that don't cause events
+     */
+    private void wakeDue() {
+        if (dormantInputs.isEmpty()) {
+            return;
+        }
+        int now = Bukkit.getCurrentTick();
+        for (Iterator<DormantInput> it = dormantInputs.values().iterator(); it.hasNext();) {
+            DormantInput dormant = it.next();
+            if (now - dormant.getSince() < PipesConfig.getDormantTimeout()) {
+                break;
+            }
+            it.remove();
+            unindexTargets(dormant);
+            add(dormant.getLocation());
+        }
+    }
+
+    /**
+     * Check whether or not there are any dormant inputs that might need to be woken up
+     *
+     * @return <code>true</code> if there are dormant inputs
+     */
+    public boolean hasDormant() {
+        return !dormantInputs.isEmpty();
+    }
+
+    /**
+     * Wake up all inputs that are waiting on a target as it lost some items
+     *
+     * @param target the location of the target block
+     */
+    public void wakeTarget(SimpleLocation target) {
+        wakeTarget(target.getWorldName(), target.getBlockKey());
+    }
+
+    /**
+     * Wake up all inputs that are waiting on a target as it lost some items or changed
+     *
+     * @param worldName the name of the world of the target
+     * @param blockKey  the block key of the target
+     */
+    public void wakeTarget(String worldName, long blockKey) {
+        Map<Long, Set<SimpleLocation>> worldTargets = dormantByTarget.get(worldName);
+        Set<SimpleLocation> waiting = worldTargets != null ? worldTargets.get(blockKey) : null;
+        if (waiting != null) {
+            for (SimpleLocation input : new ArrayList<>(waiting)) {
+                add(input);
+            }
+        }
+    }
+
+    /**
+     * Wake up all dormant inputs of a pipe, e.g. when its outputs changed
+     *
+     * @param pipe the pipe
+     */
+    public void wake(Pipe pipe) {
+        if (dormantInputs.isEmpty()) {
+            return;
+        }
+        for (SimpleLocation input : new ArrayList<>(pipe.getInputs().keySet())) {
+            if (dormantInputs.containsKey(input)) {
+                add(input);
+            }
+        }
+    }
+
+    /**
+     * Add a transfer to the shard of its chunk, creating the shard if necessary. New transfers are due at
+     * the next tick of their phase so that not all inputs run in the same tick.
+     *
+     * @param location the location of the input
+     */
+    private void addToShard(SimpleLocation location) {
+        Map<Long, TransferShard> worldShards = shards.computeIfAbsent(location.getWorldName(), w -> new HashMap<>());
+        TransferShard shard = worldShards.get(location.getChunkKey());
+        if (shard == null) {
+            World world = location.getWorld();
+            shard = new TransferShard(location.getWorldName(), location.getChunkKey());
+            shard.setParked(world == null || !world.isChunkLoaded(location.getX() >> 4, location.getZ() >> 4));
+            worldShards.put(shard.getChunkKey(), shard);
+        }
+        if (!shard.getTransfers().containsKey(location)) {
+            ScheduledTransfer transfer = new ScheduledTransfer(location, (int) Math.max(1, PipesConfig.getTransferCooldown()));
+            transfer.setNextTick(getPhaseTick(transfer, Bukkit.getCurrentTick()));
+            shard.getTransfers().put(location, transfer);
+            if (!shard.isParked()) {
+                queue(transfer);
+            }
+        }
+    }
+
+    /**
+     * Get the next tick after the given one that is in the phase of a transfer. The phase is derived from the
+     * location so that the same input always runs at the same offset into its cooldown.
+     *
+     * @param transfer the transfer
+     * @param tick     the tick to start from
+     * @return the next tick in the phase of the transfer
+     */
+    private static int getPhaseTick(ScheduledTransfer transfer, int tick) {
+        int hash = transfer.getLocation().hashCode() * 0x9E3779B9;
+        int phase = Math.floorMod(hash ^ (hash >>> 16), transfer.getCooldown());
+        int next = tick - Math.floorMod(tick, transfer.getCooldown()) + phase;
+        return next > tick ? next : next + transfer.getCooldown();
+    }
+
+    /**
+     * Get the cooldown window that a tick is in. Every input runs once per window at its phase,
+     * the same as all inputs ran once per task run before they were spread over the cooldown.
+     *
+     * @param tick the tick
+     * @return the number of the window
+     */
+    private static int getTransferWindow(int tick) {
+        return Math.floorDiv(tick, (int) Math.max(1, PipesConfig.getTransferCooldown()));
+    }
+
+    private void queue(ScheduledTransfer transfer) {
+        if (!transfer.isQueued()) {
+            transfer.setQueued(true);
+            dueTransfers.add(transfer);
+        }
+    }
+
+    private TransferShard getShard(SimpleLocation location) {
+        Map<Long, TransferShard> worldShards = shards.get(location.getWorldName());
+        return worldShards != null ? worldShards.get(location.getChunkKey()) : null;
+    }
+
+    private void removeShard(TransferShard shard) {
+        Map<Long, TransferShard> worldShards = shards.get(shard.getWorldName());
+        if (worldShards != null) {
+            worldShards.remove(shard.getChunkKey(), shard);
+            if (worldShards.isEmpty()) {
+                shards.remove(shard.getWorldName());
+            }
+        }
+    }
+
+    /**
+     * Check whether or not a transfer is scheduled at a location
+     *
+     * @param location the location of the input
+     * @return <code>true</code> if it is scheduled (even when its chunk is not loaded)
+     */
+    public boolean isScheduled(SimpleLocation location) {
+        TransferShard shard = getShard(location);
+        return shard != null && shard.getTransfers().containsKey(location);
     }
 
+    /**
+     * Park the transfers of a chunk so that they don't get processed while the chunk is unloaded,
+     * they get dropped from the due queue once they come up
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the chunk
+     */
+    public void parkChunk(String worldName, long chunkKey) {
+        Map<Long, TransferShard> worldShards = shards.get(worldName);
+        TransferShard shard = worldShards != null ? worldShards.get(chunkKey) : null;
+        if (shard != null) {
+            shard.setParked(true);
+        }
+    }
+
+    /**
+     * Park the transfers of all chunks of a world that unloads
+     *
+     * @param worldName the name of the world
+     */
+    public void parkWorld(String worldName) {
+        Map<Long, TransferShard> worldShards = shards.get(worldName);
+        if (worldShards != null) {
+            for (TransferShard shard : worldShards.values()) {
+                shard.setParked(true);
+            }
+        }
+    }
+
+    /**
+     * Resume the parked transfers of a chunk after it got loaded again
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the chunk
+     */
+    public void resumeChunk(String worldName, long chunkKey) {
+        Map<Long, TransferShard> worldShards = shards.get(worldName);
+        TransferShard shard = worldShards != null ? worldShards.get(chunkKey) : null;
+        if (shard != null && shard.isParked()) {
+            shard.setParked(false);
+            int now = Bukkit.getCurrentTick();
+            for (ScheduledTransfer transfer : shard.getTransfers().values()) {
+                if (!transfer.isQueued()) {
+                    transfer.setNextTick(getPhaseTick(transfer, now));
+                    queue(transfer);
+                }
+            }
+            emptyRuns = 0;
+            if (!isActive()) {
+                create();
+            }
+        }
+    }
+
+    /**
+     * Get all scheduled transfers, including the ones in unloaded chunks
+     *
+     * @return a new set with all scheduled transfers
+     */
     public Set<SimpleLocation> getTransfers() {
-        return scheduledItemTransfers;
+        Set<SimpleLocation> transfers = new LinkedHashSet<>();
+        for (Map<Long, TransferShard> worldShards : shards.values()) {
+            for (TransferShard shard : worldShards.values()) {
+                transfers.addAll(shard.getTransfers().keySet());
+            }
+        }
+        transfers.addAll(dormantInputs.keySet());
+        for (Map.Entry<String, LongHashSet> entry : delayedTransfers.entrySet()) {
+            entry.getValue().forEach(blockKey -> transfers.add(SimpleLocation.fromBlockKey(entry.getKey(), blockKey)));
+        }
+        return transfers;
+    }
+
+    /**
+     * Get the amount of input updates that were skipped since the start because nothing changed
+     *
+     * @return the amount of avoided updates
+     */
+    public long getAvoidedUpdates() {
+        return avoidedUpdates;
+    }
+
+    /**
+     * Get the amount of inputs that are currently sleeping
+     *
+     * @return the amount of dormant inputs
+     */
+    public int getDormantCount() {
+        return dormantInputs.size();
+    }
+
+    /**
+     * Get the amount of scheduled transfers, including the ones in unloaded chunks
+     *
+     * @return the amount of scheduled transfers
+     */
+    public int getTransferCount() {
+        int count = 0;
+        for (Map<Long, TransferShard> worldShards : shards.values()) {
+            for (TransferShard shard : worldShards.values()) {
+                count += shard.getTransfers().size();
+            }
+        }
+        return count;
     }
 
     public static void load() {
@@ -553,7 +1030,7 @@ public class ItemMoveScheduler {
                 Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not load transfer from transfers.yml: " + e.getMessage());
             }
         }
-        Pipes.getInstance().getLogger().log(Level.INFO, "Loaded " + getInstance().getTransfers().size() + " scheduled transfers.");
+        Pipes.getInstance().getLogger().log(Level.INFO, "Loaded " + getInstance().getTransferCount() + " scheduled transfers.");
     }
 
     public static void exit() {
@@ -572,4 +1049,107 @@ public class ItemMoveScheduler {
         }
     }
 
+    /**
+     * An input that is waiting for its targets to lose items
+     */
+    private static class DormantInput {
+
+        private final SimpleLocation location;
+        private final List<SimpleLocation> targets;
+        private final int since;
+
+        private DormantInput(SimpleLocation location, List<SimpleLocation> targets, int since) {
+            this.location = location;
+            this.targets = targets;
+            this.since = since;
+        }
+
+        public SimpleLocation getLocation() {
+            return location;
+        }
+
+        public List<SimpleLocation> getTargets() {
+            return targets;
+        }
+
+        public int getSince() {
+            return since;
+        }
+    }
+
+    /**
+     * A scheduled transfer of an input with the tick it is due at next
+     */
+    private static class ScheduledTransfer {
+
+        private final SimpleLocation location;
+        private final int cooldown;
+        private int nextTick;
+        private boolean queued = false;
+
+        private ScheduledTransfer(SimpleLocation location, int cooldown) {
+            this.location = location;
+            this.cooldown = cooldown;
+        }
+
+        public SimpleLocation getLocation() {
+            return location;
+        }
+
+        public int getCooldown() {
+            return cooldown;
+        }
+
+        public int getNextTick() {
+            return nextTick;
+        }
+
+        public void setNextTick(int nextTick) {
+            this.nextTick = nextTick;
+        }
+
+        public boolean isQueued() {
+            return queued;
+        }
+
+        public void setQueued(boolean queued) {
+            this.queued = queued;
+        }
+    }
+
+    /**
+     * The scheduled transfers of a single chunk
+     */
+    private static class TransferShard {
+
+        private final String worldName;
+        private final long chunkKey;
+        private final Map<SimpleLocation, ScheduledTransfer> transfers = new LinkedHashMap<>();
+        private boolean parked = false;
+
+        private TransferShard(String worldName, long chunkKey) {
+            this.worldName = worldName;
+            this.chunkKey = chunkKey;
+        }
+
+        public String getWorldName() {
+            return worldName;
+        }
+
+        public long getChunkKey() {
+            return chunkKey;
+        }
+
+        public Map<SimpleLocation, ScheduledTransfer> getTransfers() {
+            return transfers;
+        }
+
+        public boolean isParked() {
+            return parked;
+        }
+
+        public void setParked(boolean parked) {
+            this.parked = parked;
+        }
+    }
 }
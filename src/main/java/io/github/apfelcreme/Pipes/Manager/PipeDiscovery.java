@@ -0,0 +1,455 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import com.destroystokyo.paper.MaterialTags;
+import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
+import io.github.apfelcreme.Pipes.Exception.LocationException;
+import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
+import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
+import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeBlockSet;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
+import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
+import io.github.apfelcreme.Pipes.Util.LongQueue;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Copyright 2021 Max Lee (https://github.com/Phoenix616/)
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Searches the pipe of an input with the same search as {@link PipeManager#isPipe}, but in steps that can be
+ * continued later. On the main thread every step only checks as many blocks as the manager's discovery budget
+ * allows. Asynchronous searches run on snapshots of the chunks they reach, these and the pipe parts in them
+ * are captured on the main thread whenever the search needs a new chunk. The result is only accepted if no
+ * pipe block was changed in the chunks the search read, otherwise it is started over as a synchronous search
+ * in the manager's discovery queue.
+ */
+class PipeDiscovery {
+
+    private final PipeManager manager;
+    private final World world;
+    private final SimpleLocation start;
+    private boolean async;
+    private int blockChanges;
+
+    /**
+     * the keys of the chunks that the search read blocks from
+     */
+    private final LongHashSet chunks = new LongHashSet();
+    private boolean done = false;
+
+    /**
+     * the snapshots of the captured chunks by their chunk keys, only used by asynchronous searches
+     */
+    private final Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+
+    /**
+     * the pipe parts in the captured chunks by their block keys
+     */
+    private final Map<Long, AbstractPipePart> parts = new HashMap<>();
+
+    private final LongQueue queue = new LongQueue();
+    private final LongHashSet found = new LongHashSet();
+    private final LongQueue pipeBlockKeys = new LongQueue();
+    private final LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
+    private final LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
+    private final LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
+    private Material type = null;
+
+    /**
+     * the block that was being checked when the search stopped because of a missing chunk
+     */
+    private long retryKey;
+    private boolean retry = false;
+    private long missingChunk;
+
+    /**
+     * the amount of blocks that were checked in the current step
+     */
+    private int visits = 0;
+
+    private LocationException exception = null;
+
+    PipeDiscovery(PipeManager manager, SimpleLocation start, boolean async) {
+        this.manager = manager;
+        this.world = start.getLocation().getWorld();
+        this.start = start;
+        this.async = async;
+        this.blockChanges = manager.getBlockChanges();
+        queue.add(start.getBlockKey());
+    }
+
+    /**
+     * returns the location of the input this search started at
+     *
+     * @return the start location
+     */
+    public SimpleLocation getStart() {
+        return start;
+    }
+
+    /**
+     * returns the inputs that were found so far
+     *
+     * @return the found inputs
+     */
+    public Map<SimpleLocation, PipeInput> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * returns whether or not the search is done and its result was handed to the manager
+     *
+     * @return <code>true</code> if the search is done
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * returns whether or not the search runs outside of the main thread
+     *
+     * @return <code>true</code> if the search is asynchronous
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Start an asynchronous search, this has to be called on the main thread
+     */
+    void start() {
+        capture(start.getChunkKey());
+        Bukkit.getScheduler().runTaskAsynchronously(Pipes.getInstance(), this::search);
+    }
+
+    /**
+     * Continue a synchronous search on the main thread, it is started over if a pipe block changed since it began
+     *
+     * @param budget the max amount of blocks to check
+     * @return the amount of blocks that were checked
+     */
+    int step(int budget) {
+        if (isStale()) {
+            reset();
+        }
+        visits = 0;
+        boolean finished;
+        try {
+            finished = walk(budget);
+        } catch (ChunkNotLoadedException | TooManyOutputsException | PipeTooLongException e) {
+            exception = e;
+            finished = true;
+        }
+        if (finished) {
+            finish();
+        }
+        return visits;
+    }
+
+    /**
+     * Forget everything that was found so far and start the search over
+     */
+    private void reset() {
+        blockChanges = manager.getBlockChanges();
+        chunks.clear();
+        queue.clear();
+        found.clear();
+        pipeBlockKeys.clear();
+        inputs.clear();
+        outputs.clear();
+        chunkLoaders.clear();
+        type = null;
+        retry = false;
+        queue.add(start.getBlockKey());
+    }
+
+    /**
+     * Capture a snapshot of a loaded chunk and all pipe parts in it, has to be called on the main thread
+     *
+     * @param chunkKey the key of the chunk
+     */
+    private void capture(long chunkKey) {
+        int chunkX = (int) chunkKey;
+        int chunkZ = (int) (chunkKey >> 32);
+        Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+        if (!manager.isScannedChunk(world.getName(), chunkKey)) {
+            manager.indexChunk(chunk);
+        }
+        snapshots.put(chunkKey, chunk.getChunkSnapshot(false, false, false));
+        chunks.add(chunkKey);
+        LongHashSet indexed = manager.getIndexedParts(world.getName(), chunkKey);
+        if (indexed != null) {
+            indexed.forEach(blockKey -> {
+                AbstractPipePart part = manager.getPipePart(world.getBlockAt(
+                        SimpleLocation.getBlockKeyX(blockKey),
+                        SimpleLocation.getBlockKeyY(blockKey),
+                        SimpleLocation.getBlockKeyZ(blockKey)));
+                if (part != null) {
+                    parts.put(blockKey, part);
+                }
+            });
+        }
+    }
+
+    /**
+     * Continue the search outside of the main thread until it is done or needs another chunk
+     */
+    private void search() {
+        boolean finished;
+        visits = 0;
+        try {
+            finished = walk(Integer.MAX_VALUE);
+        } catch (ChunkNotLoadedException | TooManyOutputsException | PipeTooLongException e) {
+            exception = e;
+            finished = true;
+        }
+        if (!Pipes.getInstance().isEnabled()) {
+            return;
+        }
+        Bukkit.getScheduler().runTask(Pipes.getInstance(), finished ? this::finish : this::resume);
+    }
+
+    /**
+     * Capture the chunk that the search is waiting on and continue it. Chunks that aren't loaded end
+     * the search like in {@link PipeManager#isPipe}, if chunk loaders are involved the pipe is searched
+     * synchronously instead as that might need to load the chunk.
+     */
+    private void resume() {
+        if (isStale()) {
+            requeue();
+            return;
+        }
+        if (!world.isChunkLoaded((int) missingChunk, (int) (missingChunk >> 32))) {
+            if (chunkLoaders.isEmpty() && SimpleLocation.fromBlockKey(world.getName(), retryKey).getChunkKey() == missingChunk) {
+                exception = new ChunkNotLoadedException(SimpleLocation.fromBlockKey(world.getName(), retryKey));
+                complete(null);
+            } else {
+                requeue();
+            }
+            return;
+        }
+        capture(missingChunk);
+        Bukkit.getScheduler().runTaskAsynchronously(Pipes.getInstance(), this::search);
+    }
+
+    /**
+     * Hand the result of the search to the manager if the pipe didn't change in the meantime
+     */
+    private void finish() {
+        if (isStale()) {
+            if (async) {
+                requeue();
+            } else {
+                reset();
+            }
+            return;
+        }
+        Pipe pipe = null;
+        if (exception == null) {
+            PipeBlockSet pipeBlocks = new PipeBlockSet(world.getName(), pipeBlockKeys.toArray(), pipeBlockKeys.size());
+            pipe = PipeManager.createPipe(inputs, outputs, chunkLoaders, pipeBlocks, type);
+        }
+        complete(pipe);
+    }
+
+    private void complete(Pipe pipe) {
+        done = true;
+        manager.completeDiscovery(this, pipe, exception);
+    }
+
+    /**
+     * Check whether or not a pipe block changed in one of the chunks that the search read since it started
+     *
+     * @return <code>true</code> if the result of the search might be wrong
+     */
+    private boolean isStale() {
+        return manager.hasBlockChanges(world.getName(), chunks, blockChanges);
+    }
+
+    /**
+     * Start the search over on the main thread, it is continued by the manager's discovery queue
+     */
+    private void requeue() {
+        async = false;
+        snapshots.clear();
+        parts.clear();
+        exception = null;
+        reset();
+        manager.queueDiscovery(this);
+    }
+
+    /**
+     * The search of {@link PipeManager#isPipe}, on the captured chunks if it is asynchronous. Every block is checked
+     * completely before anything is changed so that the search can stop at any block and continue there.
+     *
+     * @param budget the max amount of blocks to check
+     * @return <code>true</code> if the search is done, <code>false</code> if it needs the missing chunk or ran out of budget
+     * @throws ChunkNotLoadedException When the pipe reaches into a chunk that is not loaded
+     * @throws PipeTooLongException When the pipe is too long
+     * @throws TooManyOutputsException when the pipe has too many outputs
+     */
+    private boolean walk(int budget) throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException {
+        while (retry || !queue.isEmpty()) {
+            long blockKey = retry ? retryKey : queue.remove();
+            retry = false;
+            if (found.contains(blockKey)) {
+                continue;
+            }
+            if (visits >= budget) {
+                return pause(blockKey);
+            }
+            visits++;
+            int x = SimpleLocation.getBlockKeyX(blockKey);
+            int y = SimpleLocation.getBlockKeyY(blockKey);
+            int z = SimpleLocation.getBlockKeyZ(blockKey);
+            if (!async && !world.isChunkLoaded(x >> 4, z >> 4) && chunkLoaders.isEmpty()) {
+                throw new ChunkNotLoadedException(SimpleLocation.fromBlockKey(world.getName(), blockKey));
+            }
+            Material blockType = getType(x, y, z);
+            if (blockType == null) {
+                return pause(blockKey);
+            }
+            if (MaterialTags.STAINED_GLASS.isTagged(blockType)) {
+                if (type == null) {
+                    type = blockType;
+                }
+                if (blockType == type) {
+                    if (PipesConfig.getMaxPipeLength() > 0 && pipeBlockKeys.size() >= PipesConfig.getMaxPipeLength()) {
+                        throw new PipeTooLongException(SimpleLocation.fromBlockKey(world.getName(), blockKey));
+                    }
+                    pipeBlockKeys.add(blockKey);
+                    found.add(blockKey);
+                    for (BlockFace face : PipesUtil.BLOCK_FACES) {
+                        queue.add(SimpleLocation.getBlockKey(x + face.getModX(), y + face.getModY(), z + face.getModZ()));
+                    }
+                }
+                continue;
+            }
+            AbstractPipePart pipesPart = async ? parts.get(blockKey) : manager.getPipePart(world.getBlockAt(x, y, z));
+            if (pipesPart == null) {
+                continue;
+            }
+            switch (pipesPart.getType()) {
+                case PIPE_INPUT:
+                    PipeInput pipeInput = (PipeInput) pipesPart;
+                    BlockFace facing = pipeInput.getFacing();
+                    Material relative = getType(x + facing.getModX(), y + facing.getModY(), z + facing.getModZ());
+                    if (relative == null) {
+                        return pause(blockKey);
+                    }
+                    if (type == null && MaterialTags.STAINED_GLASS.isTagged(relative)) {
+                        type = relative;
+                    }
+                    if (relative == type) {
+                        inputs.put(pipeInput.getLocation(), pipeInput);
+                        found.add(blockKey);
+                        queue.add(pipeInput.getTargetLocation().getBlockKey());
+                    }
+                    break;
+                case PIPE_OUTPUT:
+                    PipeOutput pipeOutput = (PipeOutput) pipesPart;
+                    if (PipesConfig.getMaxPipeOutputs() > 0 && outputs.size() >= PipesConfig.getMaxPipeOutputs()) {
+                        throw new TooManyOutputsException(SimpleLocation.fromBlockKey(world.getName(), blockKey));
+                    }
+                    long next = 0;
+                    boolean hasNext = false;
+                    if (found.isEmpty()) {
+                        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+                            if (face != pipeOutput.getFacing()) {
+                                Material neighbour = getType(x + face.getModX(), y + face.getModY(), z + face.getModZ());
+                                if (neighbour == null) {
+                                    return pause(blockKey);
+                                }
+                                if (neighbour == type || (type == null && MaterialTags.STAINED_GLASS.isTagged(neighbour))) {
+                                    next = SimpleLocation.getBlockKey(x + face.getModX(), y + face.getModY(), z + face.getModZ());
+                                    hasNext = true;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    SimpleLocation targetLocation = pipeOutput.getTargetLocation();
+                    Material target = getType(targetLocation.getX(), targetLocation.getY(), targetLocation.getZ());
+                    if (target == null) {
+                        return pause(blockKey);
+                    }
+                    outputs.put(pipeOutput.getLocation(), pipeOutput);
+                    if (hasNext) {
+                        queue.add(next);
+                    }
+                    found.add(blockKey);
+                    // the target is never part of this pipe unless it is glass, inventories are skipped like in isPipe
+                    if (!MaterialTags.STAINED_GLASS.isTagged(target)) {
+                        found.add(targetLocation.getBlockKey());
+                    }
+                    break;
+                case CHUNK_LOADER:
+                    chunkLoaders.put(pipesPart.getLocation(), (ChunkLoader) pipesPart);
+                    found.add(blockKey);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private boolean pause(long blockKey) {
+        retryKey = blockKey;
+        retry = true;
+        return false;
+    }
+
+    /**
+     * returns the type of a block, from the captured chunks if the search is asynchronous
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @return the type or <code>null</code> if the chunk wasn't captured yet
+     */
+    private Material getType(int x, int y, int z) {
+        if (!async) {
+            chunks.add(Chunk.getChunkKey(x >> 4, z >> 4));
+            return world.getBlockAt(x, y, z).getType();
+        }
+        if (y < 0 || y > 255) {
+            return Material.VOID_AIR;
+        }
+        long chunkKey = Chunk.getChunkKey(x >> 4, z >> 4);
+        ChunkSnapshot snapshot = snapshots.get(chunkKey);
+        if (snapshot == null) {
+            missingChunk = chunkKey;
+            return null;
+        }
+        return snapshot.getBlockType(x & 15, y, z & 15);
+    }
+}
@@ -3,21 +3,30 @@ package io.github.apfelcreme.Pipes.Manager;
 import com.destroystokyo.paper.MaterialTags;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
 import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
+import io.github.apfelcreme.Pipes.Exception.LocationException;
 import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
 import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
 import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
 import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeBlockSet;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
 import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
 import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesItem;
 import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
+import io.github.apfelcreme.Pipes.Util.LongQueue;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -27,18 +36,23 @@ import org.bukkit.block.Container;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.persistence.PersistentDataType;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -70,11 +84,6 @@ public class PipeManager {
      */
     private final Cache<SimpleLocation, Pipe> pipeCache;
 
-    /**
-     * a cache to stop endless pipe checks, this is for parts that can be attached to only one pipe (glass pipe blocks)
-     */
-    private final Map<SimpleLocation, Pipe> singleCache;
-
     /**
      * a cache to stop endless pipe checks, this is for parts that can be attached to multiple pipes (outputs and chunk loader)
      */
@@ -85,18 +94,87 @@ public class PipeManager {
      */
     private final Map<SimpleLocation, AbstractPipePart> pipePartCache;
 
+    /**
+     * the cached pipes by the keys of the chunks they are in, by world name. The sets compare pipes by
+     * identity as the hash code of a pipe changes with its blocks and parts.
+     */
+    private final Map<String, Map<Long, Set<Pipe>>> chunkPipes;
+
+    /**
+     * the block keys of all known pipe parts in loaded chunks, by world name
+     */
+    private final Map<String, PartIndex> partIndex;
+
+    /**
+     * inputs whose pipe couldn't be calculated, they are only retried after an exponentially growing delay
+     */
+    private final Map<SimpleLocation, FailedLookup> failedLookups;
+
+    /**
+     * the pending pipe searches by the location of the input they started at
+     */
+    private final Map<SimpleLocation, PipeDiscovery> discoveries;
+
+    /**
+     * the synchronous pipe searches in the order they are run in
+     */
+    private final Queue<PipeDiscovery> discoveryQueue;
+
+    /**
+     * the task id of the discovery task, -1 if it isn't running
+     */
+    private int discoveryTaskId = -1;
+
+    /**
+     * the cached pipes ordered by the tick at which they should be checked again
+     */
+    private final PriorityQueue<ScheduledRefresh> refreshQueue;
+
+    /**
+     * the task id of the refresh task, -1 if it isn't running
+     */
+    private int refreshTaskId = -1;
+
+    /**
+     * counts changes to pipe blocks and parts, searches that ran while it changed are discarded
+     */
+    private int blockChanges = 0;
+
+    /**
+     * the value of {@link #blockChanges} at the last change in a chunk by world and chunk key,
+     * only kept while searches are running
+     */
+    private final Map<String, Map<Long, Integer>> chunkChanges;
+
+    /**
+     * the throughput limits of pipes that were removed from the cache by the location of their inputs,
+     * pipes that get cached again with one of these inputs continue with it instead of a full limit
+     */
+    private final Map<SimpleLocation, ThroughputState> throughputStates;
+
+    /**
+     * the tick at which the throughput states were last checked for ones that are full again
+     */
+    private int throughputPruneTick = 0;
+
     /**
      * constructor
      */
     private PipeManager() {
         pipeCache = CacheBuilder.newBuilder()
                 .maximumSize(PipesConfig.getPipeCacheSize())
-                .expireAfterWrite(PipesConfig.getPipeCacheDuration(), TimeUnit.SECONDS)
                 .removalListener(new PipeRemovalListener())
                 .build();
-        singleCache = new HashMap<>();
+        refreshQueue = new PriorityQueue<>(Comparator.comparingInt(ScheduledRefresh::getTick));
         multiCache = new HashMap<>();
         pipePartCache = new HashMap<>();
+        failedLookups = new HashMap<>();
+        discoveries = new HashMap<>();
+        discoveryQueue = new ArrayDeque<>();
+        partIndex = new HashMap<>();
+        chunkPipes = new HashMap<>();
+        throughputStates = new HashMap<>();
+        chunkChanges = new HashMap<>();
     }
 
     /**
@@ -109,12 +187,35 @@ public class PipeManager {
     }
 
     /**
-     * returns the cache for blocks that can only belong to a single pipe (and aren't inputs)
+     * Get the cached pipe that a glass block belongs to. Blocks aren't cached on their own,
+     * the pipes in the block's chunk are checked with a search in their sorted block keys.
      *
-     * @return the single cache
+     * @param location the location of the block
+     * @return the pipe or <code>null</code> if no cached pipe contains the block
      */
-    public Map<SimpleLocation, Pipe> getSingleCache() {
-        return singleCache;
+    public Pipe getPipeByBlock(SimpleLocation location) {
+        Map<Long, Set<Pipe>> worldPipes = chunkPipes.get(location.getWorldName());
+        Set<Pipe> pipes = worldPipes != null ? worldPipes.get(location.getChunkKey()) : null;
+        if (pipes != null) {
+            long blockKey = location.getBlockKey();
+            for (Pipe pipe : pipes) {
+                if (pipe.getPipeBlocks().contains(blockKey)) {
+                    return pipe;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns all cached pipes, every pipe is only contained once
+     *
+     * @return the cached pipes
+     */
+    public Set<Pipe> getCachedPipes() {
+        Set<Pipe> pipes = Collections.newSetFromMap(new IdentityHashMap<>());
+        pipes.addAll(pipeCache.asMap().values());
+        return pipes;
     }
 
     /**
@@ -149,7 +250,10 @@ public class PipeManager {
 
     /**
      * Get the pipe by an input at a location. This will only lookup in the input cache and no other one.
-     * If none is found it will try to calculate the pipe that starts at that position
+     * If none is found it will try to restore it from the {@link PipeStore} or queue a search for the pipe that
+     * starts at that position, <code>null</code> is returned until that search is done, see
+     * {@link #isDiscovering(SimpleLocation)}. If the search failed before then the last exception is thrown
+     * again until the backoff of the input ran out.
      *
      * @param location the location the input is at
      * @return a Pipe or <code>null</code>
@@ -160,22 +264,225 @@ public class PipeManager {
     public Pipe getPipeByInput(SimpleLocation location) throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException {
         Pipe pipe = pipeCache.getIfPresent(location);
         if (pipe == null) {
+            FailedLookup failed = failedLookups.get(location);
+            if (failed != null && Bukkit.getCurrentTick() < failed.getRetryTick()) {
+                throwFailure(failed.getException());
+            }
+
             Block block = location.getBlock();
 
             if (PipesUtil.getPipesItem(block) != PipesItem.PIPE_INPUT) {
+                failedLookups.remove(location);
                 return null;
             }
 
-            pipe = isPipe(block);
+            pipe = PipeStore.getInstance().restore(location);
             if (pipe != null) {
+                failedLookups.remove(location);
                 addPipe(pipe);
+                return pipe;
             }
+
+            if (!discoveries.containsKey(location)) {
+                PipeDiscovery discovery = new PipeDiscovery(this, location, PipesConfig.isAsyncDiscovery());
+                discoveries.put(location, discovery);
+                if (discovery.isAsync()) {
+                    discovery.start();
+                } else {
+                    queueDiscovery(discovery);
+                }
+            }
+            return null;
         } else {
             pipe.checkLoaded(location);
         }
         return pipe;
     }
 
+    private void addFailedLookup(SimpleLocation location, LocationException e) {
+        FailedLookup failed = failedLookups.get(location);
+        int failures = failed != null ? failed.getFailures() + 1 : 0;
+        long delay = Math.min(Math.max(1, PipesConfig.getTransferCooldown()) << Math.min(failures, 20), PipesConfig.getMaxLookupBackoff());
+        failedLookups.put(location, new FailedLookup(e, failures, Bukkit.getCurrentTick() + (int) delay));
+    }
+
+    /**
+     * Queue a synchronous pipe search so that it runs within the discovery budget
+     *
+     * @param discovery the search
+     */
+    void queueDiscovery(PipeDiscovery discovery) {
+        discoveryQueue.add(discovery);
+        if (discoveryTaskId == -1) {
+            discoveryTaskId = Bukkit.getScheduler().runTaskTimer(Pipes.getInstance(), this::runDiscoveries, 1, 1).getTaskId();
+        }
+    }
+
+    /**
+     * Run the queued synchronous pipe searches until the discovery budget of this tick is used up
+     */
+    private void runDiscoveries() {
+        int budget = PipesConfig.getDiscoveryBudget() > 0 ? PipesConfig.getDiscoveryBudget() : Integer.MAX_VALUE;
+        int visits = 0;
+        while (!discoveryQueue.isEmpty() && visits < budget) {
+            PipeDiscovery discovery = discoveryQueue.peek();
+            if (discoveries.get(discovery.getStart()) != discovery) {
+                // Already found by the search of another input of the same pipe
+                discoveryQueue.remove();
+                continue;
+            }
+            visits += discovery.step(budget - visits);
+            if (discovery.isDone()) {
+                discoveryQueue.remove();
+            }
+        }
+        if (discoveryQueue.isEmpty()) {
+            Bukkit.getScheduler().cancelTask(discoveryTaskId);
+            discoveryTaskId = -1;
+        }
+    }
+
+    /**
+     * Check whether or not the pipe of an input is currently searched
+     *
+     * @param location the location of the input
+     * @return <code>true</code> if the search isn't done yet
+     */
+    public boolean isDiscovering(SimpleLocation location) {
+        return discoveries.containsKey(location);
+    }
+
+    /**
+     * Cache the result of a pipe search. Pending searches of the other inputs that were
+     * found are dropped as they would end up with the same result.
+     *
+     * @param discovery the search
+     * @param pipe      the found pipe or <code>null</code>
+     * @param exception the exception that stopped the search or <code>null</code>
+     */
+    void completeDiscovery(PipeDiscovery discovery, Pipe pipe, LocationException exception) {
+        SimpleLocation location = discovery.getStart();
+        if (discoveries.get(location) != discovery) {
+            return;
+        }
+        discoveries.remove(location);
+        if (discoveries.isEmpty()) {
+            chunkChanges.clear();
+        }
+        if (exception != null) {
+            addFailedLookup(location, exception);
+            for (SimpleLocation input : discovery.getInputs().keySet()) {
+                if (!input.equals(location) && discoveries.remove(input) != null) {
+                    addFailedLookup(input, exception);
+                }
+            }
+            return;
+        }
+        failedLookups.remove(location);
+        if (pipe != null) {
+            for (SimpleLocation input : pipe.getInputs().keySet()) {
+                discoveries.remove(input);
+                failedLookups.remove(input);
+            }
+            for (SimpleLocation input : pipe.getInputs().keySet()) {
+                if (pipeCache.getIfPresent(input) != null) {
+                    // Another search of this pipe was faster
+                    return;
+                }
+            }
+            addPipe(pipe);
+        }
+    }
+
+    /**
+     * Mark that a pipe block or part was placed or broken at a location. This resets the backoff
+     * of failed inputs around it and makes searches that already read its chunk start over.
+     *
+     * @param location the location of the block that changed
+     */
+    public void onPipeBlockChange(SimpleLocation location) {
+        blockChanges++;
+        if (!discoveries.isEmpty()) {
+            chunkChanges.computeIfAbsent(location.getWorldName(), w -> new HashMap<>()).put(location.getChunkKey(), blockChanges);
+        }
+        resetFailedLookups(location);
+        PipeStore.getInstance().invalidate(location);
+    }
+
+    /**
+     * returns the amount of changes to pipe blocks since the start
+     *
+     * @return the amount of changes to pipe blocks
+     */
+    int getBlockChanges() {
+        return blockChanges;
+    }
+
+    /**
+     * Check whether or not a pipe block or part changed in one of some chunks
+     *
+     * @param worldName the name of the world
+     * @param chunkKeys the keys of the chunks
+     * @param since     the amount of changes from {@link #getBlockChanges()} to check from
+     * @return <code>true</code> if a block in one of the chunks changed since then
+     */
+    boolean hasBlockChanges(String worldName, LongHashSet chunkKeys, int since) {
+        if (blockChanges == since) {
+            return false;
+        }
+        Map<Long, Integer> changes = chunkChanges.get(worldName);
+        if (changes == null) {
+            return false;
+        }
+        LongHashSet.Cursor cursor = chunkKeys.cursor();
+        while (cursor.next()) {
+            Integer change = changes.get(cursor.get());
+            if (change != null && change > since) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void throwFailure(LocationException e) throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException {
+        if (e instanceof ChunkNotLoadedException) {
+            throw (ChunkNotLoadedException) e;
+        } else if (e instanceof TooManyOutputsException) {
+            throw (TooManyOutputsException) e;
+        } else if (e instanceof PipeTooLongException) {
+            throw (PipeTooLongException) e;
+        }
+    }
+
+    /**
+     * Reset the backoff of all failed inputs that are close enough to a changed block to be affected by it
+     *
+     * @param location the location of the block that changed
+     */
+    public void resetFailedLookups(SimpleLocation location) {
+        if (failedLookups.isEmpty()) {
+            return;
+        }
+        int range = PipesConfig.getMaxPipeLength() > 0 ? PipesConfig.getMaxPipeLength() + 1 : Integer.MAX_VALUE;
+        failedLookups.keySet().removeIf(input -> input.getWorldName().equals(location.getWorldName())
+                && (long) Math.abs(input.getX() - location.getX()) + Math.abs(input.getY() - location.getY()) + Math.abs(input.getZ() - location.getZ()) <= range);
+    }
+
+    /**
+     * Reset the backoff of all inputs that failed because they reached into a chunk that got loaded now
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the loaded chunk
+     */
+    public void resetFailedLookups(String worldName, long chunkKey) {
+        if (failedLookups.isEmpty()) {
+            return;
+        }
+        failedLookups.values().removeIf(failed -> failed.getException() instanceof ChunkNotLoadedException
+                && failed.getException().getAccessedLocation().getWorldName().equals(worldName)
+                && failed.getException().getAccessedLocation().getChunkKey() == chunkKey);
+    }
+
     /**
      * Get the pipe that is at that location, returns an empty set instead of throwing an exception
      *
@@ -197,7 +504,7 @@ public class PipeManager {
         if (cacheOnly) {
             Pipe pipe = pipeCache.getIfPresent(location);
             if (pipe == null) {
-                pipe = singleCache.get(location);
+                pipe = getPipeByBlock(location);
             }
             if (pipe != null) {
                 return Collections.singleton(pipe);
@@ -283,6 +590,8 @@ public class PipeManager {
             return;
         }
 
+        ItemMoveScheduler.getInstance().wake(pipe);
+        rememberThroughput(pipe);
         for (Iterator<PipeInput> i = pipe.getInputs().values().iterator(); i.hasNext();) {
             PipeInput input = i.next();
             i.remove();
@@ -290,6 +599,82 @@ public class PipeManager {
         }
     }
 
+    /**
+     * Schedule a cached pipe to be checked again in the background. The time is randomly spread over the
+     * last fifth of the cache duration so that pipes that were cached together aren't all checked together.
+     *
+     * @param pipe the pipe
+     */
+    private void scheduleRefresh(Pipe pipe) {
+        long duration = PipesConfig.getPipeCacheDuration() * 20;
+        if (duration <= 0) {
+            return;
+        }
+        long jitter = duration / 5;
+        long delay = duration - jitter + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+        pipe.setRefreshTick(Bukkit.getCurrentTick() + (int) Math.min(delay, Integer.MAX_VALUE / 2));
+        refreshQueue.add(new ScheduledRefresh(pipe, pipe.getRefreshTick()));
+        if (refreshTaskId == -1) {
+            refreshTaskId = Bukkit.getScheduler().runTaskTimer(Pipes.getInstance(), this::runRefresh, 1, 1).getTaskId();
+        }
+    }
+
+    /**
+     * Check the pipes that are due, at most as many as the refresh budget allows per tick
+     */
+    private void runRefresh() {
+        int now = Bukkit.getCurrentTick();
+        int budget = PipesConfig.getPipeRefreshBudget();
+        int refreshed = 0;
+        while (!refreshQueue.isEmpty() && refreshQueue.peek().getTick() <= now && (budget <= 0 || refreshed < budget)) {
+            ScheduledRefresh scheduled = refreshQueue.poll();
+            Pipe pipe = scheduled.getPipe();
+            if (scheduled.getTick() != pipe.getRefreshTick() || pipe.getInputs().isEmpty()) {
+                // Scheduled again in the meantime or removed
+                continue;
+            }
+            PipeInput input = pipe.getInputs().values().iterator().next();
+            if (pipeCache.getIfPresent(input.getLocation()) != pipe) {
+                continue;
+            }
+            refreshed++;
+            refresh(pipe, input);
+        }
+        if (refreshQueue.isEmpty()) {
+            Bukkit.getScheduler().cancelTask(refreshTaskId);
+            refreshTaskId = -1;
+        }
+    }
+
+    /**
+     * Search a cached pipe again and replace it if it changed
+     *
+     * @param pipe  the cached pipe
+     * @param input the input to start the search at
+     */
+    private void refresh(Pipe pipe, PipeInput input) {
+        if (pipe.getUnloadedChunks() > 0) {
+            // Can't be searched right now, the chunk listener keeps track of it in the meantime
+            scheduleRefresh(pipe);
+            return;
+        }
+        Pipe refreshed;
+        try {
+            refreshed = isPipe(input.getLocation().getBlock());
+        } catch (ChunkNotLoadedException | TooManyOutputsException | PipeTooLongException e) {
+            refreshed = null;
+        }
+        if (pipe.equals(refreshed)) {
+            scheduleRefresh(pipe);
+            return;
+        }
+        ItemMoveScheduler.getInstance().wake(pipe);
+        forgetPipe(pipe);
+        if (refreshed != null) {
+            addPipe(refreshed);
+        }
+    }
+
     /**
      * Add all the pipes locations to the cache
      * @param pipe The pipe
@@ -298,6 +683,17 @@ public class PipeManager {
         if (pipe == null) {
             return;
         }
+        if (!throughputStates.isEmpty()) {
+            int tick = Bukkit.getCurrentTick();
+            for (SimpleLocation input : pipe.getInputs().keySet()) {
+                ThroughputState state = throughputStates.remove(input);
+                if (state != null) {
+                    pipe.inheritItemTokens(state.getTokens(), state.getLastRefill(), tick);
+                }
+            }
+        }
+        updateChunks(pipe);
+        scheduleRefresh(pipe);
         for (PipeInput input : pipe.getInputs().values()) {
             pipeCache.put(input.getLocation(), pipe);
             pipePartCache.put(input.getLocation(), input);
@@ -305,9 +701,6 @@ public class PipeManager {
                 ItemMoveScheduler.getInstance().add(input.getLocation());
             }
         }
-        for (SimpleLocation location : pipe.getPipeBlocks()) {
-            singleCache.put(location, pipe);
-        }
         for (PipeOutput output : pipe.getOutputs().values()) {
             addToMultiCache(output.getLocation(), pipe);
             pipePartCache.put(output.getLocation(), output);
@@ -337,12 +730,15 @@ public class PipeManager {
                 throw new TooManyOutputsException(pipePart.getLocation());
             }
             pipe.getOutputs().put(pipePart.getLocation(), (PipeOutput) pipePart);
+            pipe.invalidateRoutes();
             addToMultiCache(pipePart.getLocation(), pipe);
         } else if (pipePart instanceof ChunkLoader) {
             pipe.getChunkLoaders().put(pipePart.getLocation(), (ChunkLoader) pipePart);
             addToMultiCache(pipePart.getLocation(), pipe);
         }
         pipePartCache.put(pipePart.getLocation(), pipePart);
+        updateChunks(pipe);
+        ItemMoveScheduler.getInstance().wake(pipe);
     }
 
     /**
@@ -357,6 +753,7 @@ public class PipeManager {
             pipeCache.invalidate(pipePart.getLocation());
         } else if (pipePart instanceof PipeOutput) {
             pipe.getOutputs().remove(pipePart.getLocation());
+            pipe.invalidateRoutes();
             if (pipe.getOutputs().isEmpty()) {
                 removePipe(pipe);
             } else {
@@ -367,21 +764,213 @@ public class PipeManager {
             removeFromMultiCache(pipePart.getLocation(), pipe);
         }
         pipePartCache.remove(pipePart.getLocation(), pipePart);
+        updateChunks(pipe);
+        ItemMoveScheduler.getInstance().wake(pipe);
+    }
+
+    /**
+     * Calculate the chunks of a pipe again and update the index of pipes by chunk
+     *
+     * @param pipe the pipe
+     */
+    private void updateChunks(Pipe pipe) {
+        World world = pipe.getWorld();
+        if (world == null) {
+            return;
+        }
+        Map<Long, Set<Pipe>> worldPipes = chunkPipes.computeIfAbsent(world.getName(), w -> new HashMap<>());
+        pipe.getChunkKeys().forEach(chunkKey -> {
+            Set<Pipe> pipes = worldPipes.get(chunkKey);
+            if (pipes != null) {
+                pipes.remove(pipe);
+            }
+        });
+        pipe.calculateChunks();
+        pipe.getChunkKeys().forEach(chunkKey -> worldPipes
+                .computeIfAbsent(chunkKey, c -> Collections.newSetFromMap(new IdentityHashMap<>()))
+                .add(pipe));
+    }
+
+    /**
+     * Update the unloaded chunk count of all cached pipes in a chunk
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the chunk
+     * @param loaded    whether the chunk got loaded or unloaded
+     */
+    public void onChunkChange(String worldName, long chunkKey, boolean loaded) {
+        Map<Long, Set<Pipe>> worldPipes = chunkPipes.get(worldName);
+        Set<Pipe> pipes = worldPipes != null ? worldPipes.get(chunkKey) : null;
+        if (pipes == null) {
+            return;
+        }
+        if (pipes.isEmpty()) {
+            worldPipes.remove(chunkKey);
+            return;
+        }
+        for (Pipe pipe : pipes) {
+            if (loaded) {
+                pipe.onChunkLoad(chunkKey);
+            } else {
+                pipe.onChunkUnload(chunkKey);
+            }
+        }
+    }
+
+    /**
+     * Drop everything that is cached for an unloading chunk. Pipes that have no loaded chunk left are moved
+     * to the {@link PipeStore} in their compact form, parts that don't belong to a cached pipe are forgotten.
+     * This has to be called after {@link #onChunkChange} and before the chunk is removed from the part index.
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the chunk
+     */
+    public void evictChunk(String worldName, long chunkKey) {
+        Map<Long, Set<Pipe>> worldPipes = chunkPipes.get(worldName);
+        Set<Pipe> pipes = worldPipes != null ? worldPipes.get(chunkKey) : null;
+        if (pipes != null) {
+            for (Pipe pipe : new ArrayList<>(pipes)) {
+                if (pipe.getUnloadedChunks() >= pipe.getChunkKeys().size()) {
+                    if (!pipe.getInputs().isEmpty()) {
+                        PipeStore.getInstance().store(pipe);
+                    }
+                    forgetPipe(pipe);
+                    forgetParts(pipe);
+                }
+            }
+            if (pipes.isEmpty()) {
+                worldPipes.remove(chunkKey);
+            }
+        }
+        LongHashSet parts = getIndexedParts(worldName, chunkKey);
+        if (parts != null && !pipePartCache.isEmpty()) {
+            parts.forEach(blockKey -> {
+                SimpleLocation location = SimpleLocation.fromBlockKey(worldName, blockKey);
+                if (pipeCache.getIfPresent(location) == null && !multiCache.containsKey(location)) {
+                    pipePartCache.remove(location);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drop the cached inventory holders of the part at a location and of the outputs that might point into it.
+     * This needs to be called when a block gets placed or broken.
+     *
+     * @param location the location of the block that changed
+     */
+    public void invalidateHolders(SimpleLocation location) {
+        if (pipePartCache.isEmpty()) {
+            return;
+        }
+        AbstractPipePart part = pipePartCache.get(location);
+        if (part != null) {
+            part.invalidateHolder();
+        }
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            AbstractPipePart neighbour = pipePartCache.get(location.getRelative(face));
+            if (neighbour instanceof PipeOutput) {
+                neighbour.invalidateHolder();
+            }
+        }
+    }
+
+    /**
+     * Drop the cached inventory holders of all parts in an unloading chunk and of the outputs
+     * in the neighbouring chunks that point into it, their tile entities get replaced on the next load.
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the chunk
+     */
+    public void invalidateHolders(String worldName, long chunkKey) {
+        if (pipePartCache.isEmpty()) {
+            return;
+        }
+        int chunkX = (int) chunkKey;
+        int chunkZ = (int) (chunkKey >> 32);
+        long[] chunkKeys = {
+                chunkKey,
+                Chunk.getChunkKey(chunkX - 1, chunkZ),
+                Chunk.getChunkKey(chunkX + 1, chunkZ),
+                Chunk.getChunkKey(chunkX, chunkZ - 1),
+                Chunk.getChunkKey(chunkX, chunkZ + 1)
+        };
+        for (long key : chunkKeys) {
+            LongHashSet parts = getIndexedParts(worldName, key);
+            if (parts == null) {
+                continue;
+            }
+            parts.forEach(blockKey -> {
+                AbstractPipePart part = pipePartCache.get(SimpleLocation.fromBlockKey(worldName, blockKey));
+                if (part != null && (key == chunkKey
+                        || part instanceof PipeOutput && ((PipeOutput) part).getTargetLocation().getChunkKey() == chunkKey)) {
+                    part.invalidateHolder();
+                }
+            });
+        }
+    }
+
+    /**
+     * Remove the parts of a pipe from the part cache if no other cached pipe uses them
+     *
+     * @param pipe the pipe
+     */
+    private void forgetParts(Pipe pipe) {
+        for (PipeInput input : pipe.getInputs().values()) {
+            if (pipeCache.getIfPresent(input.getLocation()) == null) {
+                pipePartCache.remove(input.getLocation(), input);
+            }
+        }
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            if (!multiCache.containsKey(output.getLocation())) {
+                pipePartCache.remove(output.getLocation(), output);
+            }
+        }
+        for (ChunkLoader loader : pipe.getChunkLoaders().values()) {
+            if (!multiCache.containsKey(loader.getLocation())) {
+                pipePartCache.remove(loader.getLocation(), loader);
+            }
+        }
+    }
+
+    /**
+     * Called when the settings or contents of a pipe part changed in a way that might change where items can go
+     *
+     * @param pipePart the part that changed
+     */
+    public void onPartChanged(AbstractPipePart pipePart) {
+        if (pipePart instanceof PipeInput) {
+            Pipe pipe = pipeCache.getIfPresent(pipePart.getLocation());
+            if (pipe != null) {
+                ItemMoveScheduler.getInstance().wake(pipe);
+            }
+        } else {
+            if (pipePart instanceof PipeOutput) {
+                ((PipeOutput) pipePart).invalidateFilter();
+            }
+            Set<Pipe> pipes = multiCache.get(pipePart.getLocation());
+            if (pipes != null) {
+                for (Pipe pipe : new ArrayList<>(pipes)) {
+                    PipeOutput output = pipe.getOutputs().get(pipePart.getLocation());
+                    if (output != null) {
+                        output.invalidateFilter();
+                        pipe.invalidateRoutes();
+                    }
+                    ItemMoveScheduler.getInstance().wake(pipe);
+                }
+            }
+        }
     }
 
     private void addToMultiCache(SimpleLocation location, Pipe pipe) {
-        multiCache.putIfAbsent(location, Collections.newSetFromMap(new WeakHashMap<>()));
-        multiCache.get(location).add(pipe);
+        // Pipes change their hash code when parts get added or removed, weak keys are compared by identity
+        multiCache.computeIfAbsent(location, l -> Collections.newSetFromMap(new MapMaker().weakKeys().makeMap())).add(pipe);
     }
 
     private void removeFromMultiCache(SimpleLocation location, Pipe pipe) {
         Collection<Pipe> pipes = multiCache.get(location);
-        if (pipes != null) {
-            if (pipes.size() == 1) {
-                multiCache.remove(location);
-            } else {
-                pipes.remove(pipe);
-            }
+        if (pipes != null && pipes.remove(pipe) && pipes.isEmpty()) {
+            multiCache.remove(location);
         }
     }
 
@@ -399,11 +988,13 @@ public class PipeManager {
             throw new PipeTooLongException(location);
         }
         pipe.getPipeBlocks().add(location);
-        singleCache.put(location, pipe);
+        if (!pipe.getChunkKeys().contains(location.getChunkKey())) {
+            updateChunks(pipe);
+        }
     }
 
     /**
-     * Merge multiple pipes into one
+     * Merge multiple pipes into one. The smaller pipes are added to the largest one.
      * @param pipes The pipes to merge
      * @return the merged Pipe or <code>null</code> if they couldn't be merged
      * @throws PipeTooLongException When the pipe is too long
@@ -411,6 +1002,9 @@ public class PipeManager {
      */
     public Pipe mergePipes(Set<Pipe> pipes) throws TooManyOutputsException, PipeTooLongException {
         Material type = null;
+        Pipe largest = null;
+        int blockCount = 0;
+        int outputCount = 0;
         for (Pipe pipe : pipes) {
             if (type == null) {
                 type = pipe.getType();
@@ -418,35 +1012,197 @@ public class PipeManager {
             if (pipe.getType() != type) {
                 return null;
             }
+            if (largest == null || pipe.getPipeBlocks().size() > largest.getPipeBlocks().size()) {
+                largest = pipe;
+            }
+            blockCount += pipe.getPipeBlocks().size();
+            outputCount += pipe.getOutputs().size();
+        }
+        if (largest == null) {
+            return null;
         }
 
-        LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
-        LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
-        LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
-        LinkedHashSet<SimpleLocation> blocks = new LinkedHashSet<>();
-
-        pipes.forEach(pipe -> {
-            removePipe(pipe);
-            inputs.putAll(pipe.getInputs());
-            outputs.putAll(pipe.getOutputs());
-            chunkLoaders.putAll(pipe.getChunkLoaders());
-            blocks.addAll(pipe.getPipeBlocks());
-        });
+        if (PipesConfig.getMaxPipeLength() > 0 && blockCount >= PipesConfig.getMaxPipeLength()) {
+            pipes.forEach(this::removePipe);
+            throw new PipeTooLongException(largest.getPipeBlocks().iterator().next());
+        }
 
-        if (PipesConfig.getMaxPipeLength() > 0 &&blocks.size() >= PipesConfig.getMaxPipeLength()) {
-            throw new PipeTooLongException(blocks.iterator().next());
+        if (PipesConfig.getMaxPipeOutputs() > 0 && outputCount + 1 >= PipesConfig.getMaxPipeOutputs()) {
+            pipes.forEach(this::removePipe);
+            throw new TooManyOutputsException(largest.getOutputs().keySet().iterator().next());
         }
 
-        if (PipesConfig.getMaxPipeOutputs() > 0 && outputs.size() + 1 >= PipesConfig.getMaxPipeOutputs()) {
-            throw new TooManyOutputsException(outputs.keySet().iterator().next());
+        for (Pipe pipe : pipes) {
+            if (pipe != largest) {
+                forgetPipe(pipe);
+                largest.getInputs().putAll(pipe.getInputs());
+                largest.getOutputs().putAll(pipe.getOutputs());
+                largest.getChunkLoaders().putAll(pipe.getChunkLoaders());
+                largest.getPipeBlocks().addAll(pipe.getPipeBlocks());
+            }
         }
 
-        Pipe pipe = new Pipe(inputs, outputs, chunkLoaders, blocks, type);
+        Pipe pipe = largest;
+        // Remove outputs that point in our own inputs
+        pipe.getOutputs().values().removeIf(output -> pipe.getInputs().containsKey(output.getTargetLocation()));
+        pipe.invalidateRoutes();
 
         addPipe(pipe);
+        ItemMoveScheduler.getInstance().wake(pipe);
         return pipe;
     }
 
+    /**
+     * Remove a block from a pipe. Only the blocks of that pipe get checked to find out
+     * whether the pipe got split, each resulting part that still is a valid pipe gets cached
+     * again without having to search the world for the pipe's blocks.
+     *
+     * @param pipe     the pipe to remove the block from
+     * @param location the location of the removed block
+     */
+    public void removeBlock(Pipe pipe, SimpleLocation location) {
+        if (!pipe.getPipeBlocks().contains(location)) {
+            return;
+        }
+        ItemMoveScheduler.getInstance().wake(pipe);
+        forgetPipe(pipe);
+        pipe.getPipeBlocks().remove(location);
+
+        // Find the connected components of the remaining blocks, starting at the neighbours of the removed one
+        List<Set<SimpleLocation>> components = new ArrayList<>();
+        Set<SimpleLocation> assigned = new HashSet<>();
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            SimpleLocation neighbour = location.getRelative(face);
+            if (pipe.getPipeBlocks().contains(neighbour) && !assigned.contains(neighbour)) {
+                Set<SimpleLocation> component = new LinkedHashSet<>();
+                Queue<SimpleLocation> queue = new ArrayDeque<>();
+                queue.add(neighbour);
+                component.add(neighbour);
+                while (!queue.isEmpty()) {
+                    SimpleLocation current = queue.remove();
+                    for (BlockFace f : PipesUtil.BLOCK_FACES) {
+                        SimpleLocation next = current.getRelative(f);
+                        if (pipe.getPipeBlocks().contains(next) && component.add(next)) {
+                            queue.add(next);
+                        }
+                    }
+                }
+                assigned.addAll(component);
+                components.add(component);
+                if (assigned.size() == pipe.getPipeBlocks().size()) {
+                    break;
+                }
+            }
+        }
+
+        for (Set<SimpleLocation> component : components) {
+            LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
+            LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
+            LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
+            for (PipeInput input : pipe.getInputs().values()) {
+                if (component.contains(input.getTargetLocation())) {
+                    inputs.put(input.getLocation(), input);
+                }
+            }
+            for (PipeOutput output : pipe.getOutputs().values()) {
+                if (isAdjacent(output.getLocation(), component) && !inputs.containsKey(output.getTargetLocation())) {
+                    outputs.put(output.getLocation(), output);
+                }
+            }
+            for (ChunkLoader chunkLoader : pipe.getChunkLoaders().values()) {
+                if (isAdjacent(chunkLoader.getLocation(), component)) {
+                    chunkLoaders.put(chunkLoader.getLocation(), chunkLoader);
+                }
+            }
+            if (inputs.isEmpty() || outputs.isEmpty()) {
+                continue;
+            }
+            if (components.size() == 1) {
+                // Pipe wasn't split, only remove the parts that were connected through the removed block
+                pipe.getInputs().keySet().retainAll(inputs.keySet());
+                pipe.getOutputs().keySet().retainAll(outputs.keySet());
+                pipe.getChunkLoaders().keySet().retainAll(chunkLoaders.keySet());
+                pipe.invalidateRoutes();
+                addPipe(pipe);
+            } else {
+                addPipe(new Pipe(inputs, outputs, chunkLoaders, new PipeBlockSet(location.getWorldName(), component), pipe.getType()));
+            }
+        }
+    }
+
+    private static boolean isAdjacent(SimpleLocation location, Set<SimpleLocation> blocks) {
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            if (blocks.contains(location.getRelative(face))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove all cache entries of a pipe without touching the pipe itself
+     *
+     * @param pipe the pipe
+     */
+    private void forgetPipe(Pipe pipe) {
+        rememberThroughput(pipe);
+        for (PipeInput input : pipe.getInputs().values()) {
+            pipeCache.asMap().remove(input.getLocation(), pipe);
+        }
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            removeFromMultiCache(output.getLocation(), pipe);
+        }
+        for (ChunkLoader chunkLoader : pipe.getChunkLoaders().values()) {
+            removeFromMultiCache(chunkLoader.getLocation(), pipe);
+        }
+        unindexPipeChunks(pipe);
+    }
+
+    /**
+     * Keep the throughput limit of a pipe that gets removed from the cache by its inputs so that a refreshed,
+     * merged, split or restored pipe doesn't start with a full one. Limits that are full again get dropped.
+     *
+     * @param pipe the pipe
+     */
+    private void rememberThroughput(Pipe pipe) {
+        int tick = Bukkit.getCurrentTick();
+        if (!throughputStates.isEmpty() && tick - throughputPruneTick >= 20) {
+            throughputPruneTick = tick;
+            throughputStates.values().removeIf(state -> state.getFullTick() <= tick);
+        }
+        double rate = PipesConfig.getThroughputRate(pipe.getType());
+        if (rate <= 0 || pipe.getItemTokens() < 0) {
+            return;
+        }
+        int burst = PipesConfig.getThroughputBurst(pipe.getType());
+        int fullTick = pipe.getLastTokenRefill() + (int) Math.ceil((burst - pipe.getItemTokens()) * 20 / rate);
+        if (fullTick <= tick) {
+            return;
+        }
+        ThroughputState state = new ThroughputState(pipe.getItemTokens(), pipe.getLastTokenRefill(), fullTick);
+        for (SimpleLocation input : pipe.getInputs().keySet()) {
+            throughputStates.put(input, state);
+        }
+    }
+
+    /**
+     * Remove a pipe from the pipes by chunk, this also removes it from the lookup of its glass blocks
+     *
+     * @param pipe the pipe
+     */
+    private void unindexPipeChunks(Pipe pipe) {
+        World world = pipe.getWorld();
+        Map<Long, Set<Pipe>> worldPipes = world != null ? chunkPipes.get(world.getName()) : null;
+        if (worldPipes != null) {
+            pipe.getChunkKeys().forEach(chunkKey -> {
+                Set<Pipe> chunk = worldPipes.get(chunkKey);
+                if (chunk != null) {
+                    chunk.remove(pipe);
+                }
+            });
+        }
+    }
+
     /**
      * checks if the block is part of a pipe.
      *
@@ -458,44 +1214,45 @@ public class PipeManager {
      */
     public Pipe isPipe(Block startingPoint) throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException {
 
-        Queue<SimpleLocation> queue = new LinkedList<>();
-        Set<SimpleLocation> found = new LinkedHashSet<>();
+        // positions are handled as packed block keys while searching, locations are only created for the parts of the result
+        LongQueue queue = new LongQueue();
+        LongHashSet found = new LongHashSet();
+        LongQueue pipeBlockKeys = new LongQueue();
 
         LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
         LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
         LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
-        LinkedHashSet<SimpleLocation> pipeBlocks = new LinkedHashSet<>();
 
         Material type = null;
 
         World world = startingPoint.getWorld();
+        String worldName = world.getName();
 
-        queue.add(new SimpleLocation(
-                startingPoint.getWorld().getName(),
-                startingPoint.getX(),
-                startingPoint.getY(),
-                startingPoint.getZ()));
+        queue.add(SimpleLocation.getBlockKey(startingPoint.getX(), startingPoint.getY(), startingPoint.getZ()));
 
         while (!queue.isEmpty()) {
-            SimpleLocation location = queue.remove();
-            if (!found.contains(location)) {
-                if (!world.isChunkLoaded(location.getX() >> 4, location.getZ() >> 4)
+            long blockKey = queue.remove();
+            if (!found.contains(blockKey)) {
+                int x = SimpleLocation.getBlockKeyX(blockKey);
+                int y = SimpleLocation.getBlockKeyY(blockKey);
+                int z = SimpleLocation.getBlockKeyZ(blockKey);
+                if (!world.isChunkLoaded(x >> 4, z >> 4)
                         && (chunkLoaders.size() == 0)) {
-                    throw new ChunkNotLoadedException(location);
+                    throw new ChunkNotLoadedException(new SimpleLocation(worldName, x, y, z));
                 }
-                Block block = world.getBlockAt(location.getX(), location.getY(), location.getZ());
+                Block block = world.getBlockAt(x, y, z);
                 if (MaterialTags.STAINED_GLASS.isTagged(block)) {
                     if (type == null) {
                         type = block.getType();
                     }
                     if (block.getType() == type) {
-                        if (PipesConfig.getMaxPipeLength() > 0 && pipeBlocks.size() >= PipesConfig.getMaxPipeLength()) {
-                            throw new PipeTooLongException(location);
+                        if (PipesConfig.getMaxPipeLength() > 0 && pipeBlockKeys.size() >= PipesConfig.getMaxPipeLength()) {
+                            throw new PipeTooLongException(new SimpleLocation(worldName, x, y, z));
                         }
-                        pipeBlocks.add(location);
-                        found.add(location);
+                        pipeBlockKeys.add(blockKey);
+                        found.add(blockKey);
                         for (BlockFace face : PipesUtil.BLOCK_FACES) {
-                            queue.add(location.getRelative(face));
+                            queue.add(SimpleLocation.getBlockKey(x + face.getModX(), y + face.getModY(), z + face.getModZ()));
                         }
                     }
                 } else {
@@ -510,14 +1267,14 @@ public class PipeManager {
                                 }
                                 if (relativeBlock.getType() == type) {
                                     inputs.put(pipeInput.getLocation(), pipeInput);
-                                    found.add(location);
-                                    queue.add(pipeInput.getTargetLocation());
+                                    found.add(blockKey);
+                                    queue.add(pipeInput.getTargetLocation().getBlockKey());
                                 }
                                 break;
                             case PIPE_OUTPUT:
                                 PipeOutput pipeOutput = (PipeOutput) pipesPart;
                                 if (PipesConfig.getMaxPipeOutputs() > 0 && outputs.size() >= PipesConfig.getMaxPipeOutputs()) {
-                                    throw new TooManyOutputsException(location);
+                                    throw new TooManyOutputsException(new SimpleLocation(worldName, x, y, z));
                                 }
                                 outputs.put(pipeOutput.getLocation(), pipeOutput);
                                 if (found.isEmpty()) {
@@ -525,23 +1282,23 @@ public class PipeManager {
                                         if (face != pipeOutput.getFacing()) {
                                             Material relative = block.getRelative(face).getType();
                                             if (relative == type || (type == null & MaterialTags.STAINED_GLASS.isTagged(relative))) {
-                                                queue.add(location.getRelative(face));
+                                                queue.add(SimpleLocation.getBlockKey(x + face.getModX(), y + face.getModY(), z + face.getModZ()));
                                                 break;
                                             }
                                         }
                                     }
                                 }
-                                found.add(location);
-                                Block relativeToOutput = pipeOutput.getTargetLocation().getBlock();
-                                if (relativeToOutput.getState(false) instanceof InventoryHolder) {
-                                    found.add(new SimpleLocation(relativeToOutput.getLocation()));
-                                } else if (relativeToOutput.getType() == Material.COMPOSTER) {
-                                    found.add(new SimpleLocation(relativeToOutput.getLocation()));
+                                found.add(blockKey);
+                                SimpleLocation targetLocation = pipeOutput.getTargetLocation();
+                                Block relativeToOutput = world.getBlockAt(targetLocation.getX(), targetLocation.getY(), targetLocation.getZ());
+                                if (relativeToOutput.getState(false) instanceof InventoryHolder
+                                        || relativeToOutput.getType() == Material.COMPOSTER) {
+                                    found.add(targetLocation.getBlockKey());
                                 }
                                 break;
                             case CHUNK_LOADER:
                                 chunkLoaders.put(pipesPart.getLocation(), (ChunkLoader) pipesPart);
-                                found.add(location);
+                                found.add(blockKey);
                                 break;
                         }
                     }
@@ -549,6 +1306,23 @@ public class PipeManager {
             }
         }
 
+        PipeBlockSet pipeBlocks = new PipeBlockSet(worldName, pipeBlockKeys.toArray(), pipeBlockKeys.size());
+
+        return createPipe(inputs, outputs, chunkLoaders, pipeBlocks, type);
+    }
+
+    /**
+     * Create a pipe from the results of a search
+     *
+     * @param inputs       the found inputs
+     * @param outputs      the found outputs
+     * @param chunkLoaders the found chunk loaders
+     * @param pipeBlocks   the found glass blocks
+     * @param type         the type of glass
+     * @return the pipe or <code>null</code> if the parts don't make up a complete pipe
+     */
+    static Pipe createPipe(LinkedHashMap<SimpleLocation, PipeInput> inputs, LinkedHashMap<SimpleLocation, PipeOutput> outputs,
+                           LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders, PipeBlockSet pipeBlocks, Material type) {
         // Remove outputs that point in our own inputs
         for (Iterator<PipeOutput> it = outputs.values().iterator(); it.hasNext();) {
             PipeOutput pipeOutput = it.next();
@@ -582,9 +1356,117 @@ public class PipeManager {
         }
         AbstractPipePart part = PipesUtil.convertToPipePart(state, item);
         pipePartCache.put(new SimpleLocation(block.getLocation()), part);
+        indexPart(block);
         return part;
     }
 
+    /**
+     * Check whether or not a block position is a known pipe part. This doesn't access the block, a
+     * <code>false</code> means that there definitely is no part there. Positions in chunks whose tile entities
+     * haven't been scanned yet are unknown and always might contain a part.
+     *
+     * @param world the world
+     * @param x     the x coordinate of the block
+     * @param y     the y coordinate of the block
+     * @param z     the z coordinate of the block
+     * @return <code>true</code> if there might be a pipe part at that position
+     */
+    public boolean isIndexedPart(World world, int x, int y, int z) {
+        PartIndex index = partIndex.get(world.getName());
+        return index == null
+                || !index.isScanned(Chunk.getChunkKey(x >> 4, z >> 4))
+                || index.getBlockKeys().contains(Block.getBlockKey(x, y, z));
+    }
+
+    /**
+     * Check whether or not a location is a known pipe part
+     *
+     * @param location the location, can be <code>null</code>
+     * @return <code>true</code> if there might be a pipe part at that location
+     * @see #isIndexedPart(World, int, int, int)
+     */
+    public boolean isIndexedPart(Location location) {
+        return location != null && location.getWorld() != null
+                && isIndexedPart(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    /**
+     * Add a block to the index of pipe part positions
+     *
+     * @param block the block of the pipe part
+     */
+    public void indexPart(Block block) {
+        partIndex.computeIfAbsent(block.getWorld().getName(), w -> new PartIndex())
+                .add(Chunk.getChunkKey(block.getX() >> 4, block.getZ() >> 4), block.getBlockKey());
+    }
+
+    /**
+     * Remove a block from the index of pipe part positions
+     *
+     * @param block the block
+     */
+    public void unindexPart(Block block) {
+        PartIndex index = partIndex.get(block.getWorld().getName());
+        if (index != null) {
+            index.remove(Chunk.getChunkKey(block.getX() >> 4, block.getZ() >> 4), block.getBlockKey());
+        }
+    }
+
+    /**
+     * returns the block keys of the known pipe parts in a chunk
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the chunk
+     * @return the block keys or <code>null</code> if there are none
+     */
+    LongHashSet getIndexedParts(String worldName, long chunkKey) {
+        PartIndex index = partIndex.get(worldName);
+        return index != null ? index.getChunk(chunkKey) : null;
+    }
+
+    /**
+     * Check whether or not the tile entities of a chunk have been scanned for pipe parts
+     *
+     * @param worldName the name of the world
+     * @param chunkKey  the key of the chunk
+     * @return <code>true</code> if all parts of the chunk are in the index
+     */
+    boolean isScannedChunk(String worldName, long chunkKey) {
+        PartIndex index = partIndex.get(worldName);
+        return index != null && index.isScanned(chunkKey);
+    }
+
+    /**
+     * Index all pipe parts in a chunk
+     *
+     * @param chunk the chunk
+     */
+    public void indexChunk(Chunk chunk) {
+        PartIndex index = partIndex.computeIfAbsent(chunk.getWorld().getName(), w -> new PartIndex());
+        long chunkKey = chunk.getChunkKey();
+        for (BlockState state : chunk.getTileEntities(false)) {
+            if ((state.getType() == PipesItem.PIPE_INPUT.getMaterial()
+                    || state.getType() == PipesItem.PIPE_OUTPUT.getMaterial()
+                    || state.getType() == PipesItem.CHUNK_LOADER.getMaterial())
+                    && PipesUtil.getPipesItem(state) != null) {
+                index.add(chunkKey, state.getBlock().getBlockKey());
+            }
+        }
+        index.setScanned(chunkKey);
+    }
+
+    /**
+     * Remove all pipe parts of a chunk from the index
+     *
+     * @param chunk the chunk
+     */
+    public void unindexChunk(Chunk chunk) {
+        PartIndex index = partIndex.get(chunk.getWorld().getName());
+        if (index != null) {
+            index.removeChunk(chunk.getChunkKey());
+        }
+    }
+
     /**
      * Get the pipes part. Will try to lookup the part in the cache first, if not found it will create a new one.
      * @param block the block to get the part for
@@ -636,13 +1518,12 @@ public class PipeManager {
             }
 
             if (pipe.getInputs().isEmpty() || notification.getCause() != RemovalCause.EXPLICIT) {
+                rememberThroughput(pipe);
                 for (PipeInput input : pipe.getInputs().values()) {
                     pipeCache.invalidate(input.getLocation());
                     pipePartCache.remove(input.getLocation(), input);
                 }
-                for (SimpleLocation location : pipe.getPipeBlocks()) {
-                    singleCache.remove(location);
-                }
+                unindexPipeChunks(pipe);
                 for (PipeOutput output : pipe.getOutputs().values()) {
                     removeFromMultiCache(output.getLocation(), pipe);
                     if (multiCache.getOrDefault(output.getLocation(), Collections.emptySet()).isEmpty()) {
@@ -658,4 +1539,135 @@ public class PipeManager {
             }
         }
     }
+
+    /**
+     * The pipe part positions of a world. The block keys of all parts are kept in a single set so that
+     * checks only need one probe, the chunk sets are used to remove whole chunks when they unload.
+     */
+    private static class PartIndex {
+
+        private final LongHashSet blockKeys = new LongHashSet();
+        private final Map<Long, LongHashSet> chunks = new HashMap<>();
+        private final LongHashSet scannedChunks = new LongHashSet();
+
+        public boolean isScanned(long chunkKey) {
+            return scannedChunks.contains(chunkKey);
+        }
+
+        public void setScanned(long chunkKey) {
+            scannedChunks.add(chunkKey);
+        }
+
+        public LongHashSet getBlockKeys() {
+            return blockKeys;
+        }
+
+        public LongHashSet getChunk(long chunkKey) {
+            return chunks.get(chunkKey);
+        }
+
+        public void add(long chunkKey, long blockKey) {
+            if (blockKeys.add(blockKey)) {
+                chunks.computeIfAbsent(chunkKey, c -> new LongHashSet(4)).add(blockKey);
+            }
+        }
+
+        public void remove(long chunkKey, long blockKey) {
+            if (blockKeys.remove(blockKey)) {
+                LongHashSet chunk = chunks.get(chunkKey);
+                if (chunk != null) {
+                    chunk.remove(blockKey);
+                    if (chunk.isEmpty()) {
+                        chunks.remove(chunkKey);
+                    }
+                }
+            }
+        }
+
+        public void removeChunk(long chunkKey) {
+            scannedChunks.remove(chunkKey);
+            LongHashSet chunk = chunks.remove(chunkKey);
+            if (chunk != null) {
+                chunk.forEach(blockKeys::remove);
+            }
+        }
+    }
+
+    /**
+     * A pipe that should be checked again at a tick
+     */
+    private static class ScheduledRefresh {
+
+        private final Pipe pipe;
+        private final int tick;
+
+        private ScheduledRefresh(Pipe pipe, int tick) {
+            this.pipe = pipe;
+            this.tick = tick;
+        }
+
+        public Pipe getPipe() {
+            return pipe;
+        }
+
+        public int getTick() {
+            return tick;
+        }
+    }
+
+    /**
+     * The throughput limit of a pipe that was removed from the cache
+     */
+    private static class ThroughputState {
+
+        private final double tokens;
+        private final int lastRefill;
+        private final int fullTick;
+
+        private ThroughputState(double tokens, int lastRefill, int fullTick) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+            this.fullTick = fullTick;
+        }
+
+        public double getTokens() {
+            return tokens;
+        }
+
+        public int getLastRefill() {
+            return lastRefill;
+        }
+
+        public int getFullTick() {
+            return fullTick;
+        }
+    }
+
+    /**
+     * A failed pipe calculation of an input
+     */
+    private static class FailedLookup {
+
+        private final LocationException exception;
+        private final int failures;
+        private final int retryTick;
+
+        private FailedLookup(LocationException exception, int failures, int retryTick) {
+            this.exception = exception;
+            this.failures = failures;
+            this.retryTick = retryTick;
+        }
+
+        public LocationException getException() {
+            return exception;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public int getRetryTick() {
+            return retryTick;
+        }
+    }
 }
@@ -0,0 +1,687 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
+import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeBlockSet;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/*
+ * Copyright 2021 Max Lee (https://github.com/Phoenix616/)
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Stores the layout of the cached pipes in one binary file per world so that they don't have to be searched
+ * again after a restart. Pipes whose chunks all unloaded are kept here instead of in the caches of the
+ * {@link PipeManager}. A stored pipe is only restored if all of its glass blocks and parts are still there and
+ * the pipe parts in and around its chunks are the same as when it was stored. Glass that is placed next to a
+ * stored pipe removes it through {@link #invalidate(SimpleLocation)}. The files are read outside of the main
+ * thread, pipes of a world whose file is still being read are searched normally.
+ */
+public class PipeStore {
+
+    private static final int MAGIC = 0x50495045; // PIPE
+    private static final int VERSION = 2;
+
+    /**
+     * the PipeStore instance
+     */
+    private static PipeStore instance = null;
+
+    /**
+     * the folder the files are in
+     */
+    private final File folder;
+
+    /**
+     * the stored pipes of every world whose file was read
+     */
+    private final Map<String, StoredWorld> worlds = new HashMap<>();
+
+    /**
+     * the task id of the periodic save
+     */
+    private int taskId = -1;
+
+    private PipeStore() {
+        folder = new File(Pipes.getInstance().getDataFolder(), "pipes");
+    }
+
+    /**
+     * returns the PipeStore instance
+     *
+     * @return the PipeStore instance
+     */
+    public static PipeStore getInstance() {
+        if (instance == null) {
+            instance = new PipeStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the stored pipes of a world, starts reading the file of the world if it wasn't yet.
+     * The pipes of the file are only added once it was read.
+     *
+     * @param worldName the name of the world
+     * @return the stored pipes of the world
+     */
+    private StoredWorld getWorld(String worldName) {
+        StoredWorld stored = worlds.get(worldName);
+        if (stored == null) {
+            stored = new StoredWorld();
+            worlds.put(worldName, stored);
+            File file = new File(folder, worldName + ".dat");
+            if (file.exists()) {
+                stored.loading = true;
+                Bukkit.getScheduler().runTaskAsynchronously(Pipes.getInstance(), () -> {
+                    StoredWorld read = read(worldName, file);
+                    if (Pipes.getInstance().isEnabled()) {
+                        Bukkit.getScheduler().runTask(Pipes.getInstance(), () -> finishLoading(worldName, read));
+                    }
+                });
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Add the pipes that were read from the file of a world. Pipes that were stored while it was read are newer
+     * and win, changes that happened in the meantime are applied to the read pipes.
+     *
+     * @param worldName the name of the world
+     * @param read      the stored pipes from the file
+     */
+    private void finishLoading(String worldName, StoredWorld read) {
+        StoredWorld stored = worlds.get(worldName);
+        if (stored == null || !stored.loading) {
+            return;
+        }
+        stored.loading = false;
+        Set<StoredPipe> pipes = Collections.newSetFromMap(new IdentityHashMap<>());
+        pipes.addAll(read.getPipes());
+        for (StoredPipe storedPipe : pipes) {
+            if (!storedPipe.hasInput(stored)) {
+                stored.add(storedPipe);
+            }
+        }
+        for (SimpleLocation location : stored.invalidated) {
+            invalidate(location);
+        }
+        stored.invalidated.clear();
+    }
+
+    /**
+     * Restore the stored pipe of an input. The stored pipe is removed from the store, it is only returned
+     * if the pipe parts in and around its chunks didn't change, all its blocks still have the glass type
+     * of the pipe and all its parts are still there.
+     *
+     * @param location the location of the input
+     * @return the pipe or <code>null</code> if none was stored or it doesn't match the world anymore
+     */
+    public Pipe restore(SimpleLocation location) {
+        StoredWorld stored = getWorld(location.getWorldName());
+        StoredPipe storedPipe = stored.get(location.getBlockKey());
+        if (storedPipe == null) {
+            return null;
+        }
+        World world = location.getWorld();
+        if (world == null || !storedPipe.isLoaded(world)) {
+            // Keep it until all chunks are there
+            return null;
+        }
+        stored.remove(storedPipe);
+        if (!storedPipe.matchesFingerprint(world.getName())) {
+            return null;
+        }
+
+        if ((PipesConfig.getMaxPipeLength() > 0 && storedPipe.blocks.length > PipesConfig.getMaxPipeLength())
+                || (PipesConfig.getMaxPipeOutputs() > 0 && storedPipe.outputs.length > PipesConfig.getMaxPipeOutputs())) {
+            return null;
+        }
+
+        for (long blockKey : storedPipe.blocks) {
+            if (world.getBlockAt(SimpleLocation.getBlockKeyX(blockKey), SimpleLocation.getBlockKeyY(blockKey), SimpleLocation.getBlockKeyZ(blockKey)).getType() != storedPipe.type) {
+                return null;
+            }
+        }
+        PipeBlockSet pipeBlocks = new PipeBlockSet(world.getName(), storedPipe.blocks.clone(), storedPipe.blocks.length);
+        LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
+        LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
+        LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
+        if (!restoreParts(world, storedPipe.inputs, PipeInput.class, inputs)
+                || !restoreParts(world, storedPipe.outputs, PipeOutput.class, outputs)
+                || !restoreParts(world, storedPipe.chunkLoaders, ChunkLoader.class, chunkLoaders)) {
+            return null;
+        }
+        return PipeManager.createPipe(inputs, outputs, chunkLoaders, pipeBlocks, storedPipe.type);
+    }
+
+    private static <T extends AbstractPipePart> boolean restoreParts(World world, long[] blockKeys, Class<T> partClass, Map<SimpleLocation, T> parts) {
+        for (long blockKey : blockKeys) {
+            AbstractPipePart part = PipeManager.getInstance().getPipePart(world.getBlockAt(
+                    SimpleLocation.getBlockKeyX(blockKey), SimpleLocation.getBlockKeyY(blockKey), SimpleLocation.getBlockKeyZ(blockKey)));
+            if (!partClass.isInstance(part)) {
+                return false;
+            }
+            parts.put(part.getLocation(), partClass.cast(part));
+        }
+        return true;
+    }
+
+    /**
+     * Keep a pipe that is no longer cached so that it can be restored when it is needed again
+     *
+     * @param pipe the pipe
+     */
+    public void store(Pipe pipe) {
+        StoredWorld stored = getWorld(pipe.getInputs().keySet().iterator().next().getWorldName());
+        StoredPipe storedPipe = new StoredPipe(pipe);
+        for (long input : storedPipe.inputs) {
+            StoredPipe previous = stored.get(input);
+            if (previous != null) {
+                stored.remove(previous);
+            }
+        }
+        stored.add(storedPipe);
+    }
+
+    /**
+     * Forget all stored pipes that a block change at that location could have changed
+     *
+     * @param location the location of the block that changed
+     */
+    public void invalidate(SimpleLocation location) {
+        StoredWorld stored = getWorld(location.getWorldName());
+        if (stored.loading) {
+            // Also applied to the pipes from the file once they were read
+            stored.invalidated.add(location);
+        }
+        if (stored.isEmpty()) {
+            return;
+        }
+        int chunkX = location.getX() >> 4;
+        int chunkZ = location.getZ() >> 4;
+        int localX = location.getX() & 15;
+        int localZ = location.getZ() & 15;
+        // a change on the edge of a chunk can also touch the pipes of the chunk next to it
+        invalidate(stored, Chunk.getChunkKey(chunkX, chunkZ), location);
+        if (localX == 0) {
+            invalidate(stored, Chunk.getChunkKey(chunkX - 1, chunkZ), location);
+        } else if (localX == 15) {
+            invalidate(stored, Chunk.getChunkKey(chunkX + 1, chunkZ), location);
+        }
+        if (localZ == 0) {
+            invalidate(stored, Chunk.getChunkKey(chunkX, chunkZ - 1), location);
+        } else if (localZ == 15) {
+            invalidate(stored, Chunk.getChunkKey(chunkX, chunkZ + 1), location);
+        }
+    }
+
+    private static void invalidate(StoredWorld stored, long chunkKey, SimpleLocation location) {
+        Set<StoredPipe> pipes = stored.getChunk(chunkKey);
+        if (pipes == null) {
+            return;
+        }
+        List<StoredPipe> near = new ArrayList<>();
+        for (StoredPipe storedPipe : pipes) {
+            if (storedPipe.isNear(location)) {
+                near.add(storedPipe);
+            }
+        }
+        for (StoredPipe storedPipe : near) {
+            stored.remove(storedPipe);
+        }
+    }
+
+    /**
+     * Read the stored pipes of a world from its file, this doesn't access anything else so it can run asynchronously
+     *
+     * @param worldName the name of the world
+     * @param file      the file of the world
+     * @return the stored pipes of the world
+     */
+    private static StoredWorld read(String worldName, File file) {
+        StoredWorld stored = new StoredWorld();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version;
+            if (in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION) {
+                throw new IOException("Unknown file format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Material type = Material.getMaterial(in.readUTF());
+                long[] blocks = readKeys(in);
+                long[] inputs = readKeys(in);
+                long[] outputs = readKeys(in);
+                long[] chunkLoaders = readKeys(in);
+                // Pipes from before fingerprints were stored get searched again
+                long[] fingerprint = version >= 2 ? readKeys(in) : null;
+                if (fingerprint != null && fingerprint.length == 0) {
+                    fingerprint = null;
+                }
+                StoredPipe storedPipe = new StoredPipe(type, blocks, inputs, outputs, chunkLoaders, fingerprint);
+                if (type != null) {
+                    stored.add(storedPipe);
+                }
+            }
+            Pipes.getInstance().getLogger().log(Level.INFO, "Loaded " + count + " stored pipes of world " + worldName + ".");
+        } catch (IOException e) {
+            Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not read stored pipes from " + file.getName(), e);
+            stored.clear();
+        }
+        return stored;
+    }
+
+    private static long[] readKeys(DataInputStream in) throws IOException {
+        long[] keys = new long[in.readInt()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = in.readLong();
+        }
+        return keys;
+    }
+
+    private static void writeKeys(DataOutputStream out, long[] keys) throws IOException {
+        out.writeInt(keys.length);
+        for (long key : keys) {
+            out.writeLong(key);
+        }
+    }
+
+    /**
+     * Save the cached pipes and the stored pipes that weren't restored yet
+     *
+     * @param async whether or not the files should be written outside of the main thread
+     */
+    public void save(boolean async) {
+        Map<String, List<StoredPipe>> pipes = new HashMap<>();
+        Map<String, LongHashSet> cachedInputs = new HashMap<>();
+        Set<Pipe> cached = Collections.newSetFromMap(new IdentityHashMap<>());
+        cached.addAll(PipeManager.getInstance().getPipeCache().asMap().values());
+        for (Pipe pipe : cached) {
+            if (pipe.getInputs().isEmpty()) {
+                continue;
+            }
+            String worldName = pipe.getInputs().keySet().iterator().next().getWorldName();
+            StoredPipe storedPipe = new StoredPipe(pipe);
+            pipes.computeIfAbsent(worldName, w -> new ArrayList<>()).add(storedPipe);
+            LongHashSet inputs = cachedInputs.computeIfAbsent(worldName, w -> new LongHashSet());
+            for (long input : storedPipe.inputs) {
+                inputs.add(input);
+            }
+        }
+        for (String worldName : pipes.keySet()) {
+            getWorld(worldName);
+        }
+        for (Map.Entry<String, StoredWorld> entry : worlds.entrySet()) {
+            if (entry.getValue().loading) {
+                // Writing now would lose the pipes that weren't read yet
+                pipes.remove(entry.getKey());
+                continue;
+            }
+            List<StoredPipe> worldPipes = pipes.computeIfAbsent(entry.getKey(), w -> new ArrayList<>());
+            LongHashSet inputs = cachedInputs.get(entry.getKey());
+            Set<StoredPipe> remaining = Collections.newSetFromMap(new IdentityHashMap<>());
+            remaining.addAll(entry.getValue().getPipes());
+            for (StoredPipe storedPipe : remaining) {
+                if (inputs == null || !storedPipe.hasInput(inputs)) {
+                    worldPipes.add(storedPipe);
+                }
+            }
+        }
+
+        Map<File, byte[]> files = new HashMap<>();
+        for (Map.Entry<String, List<StoredPipe>> entry : pipes.entrySet()) {
+            try {
+                files.put(new File(folder, entry.getKey() + ".dat"), encode(entry.getValue()));
+            } catch (IOException e) {
+                Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not save pipes of world " + entry.getKey(), e);
+            }
+        }
+        if (async) {
+            Bukkit.getScheduler().runTaskAsynchronously(Pipes.getInstance(), () -> write(files));
+        } else {
+            write(files);
+        }
+    }
+
+    private static byte[] encode(Collection<StoredPipe> pipes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(pipes.size());
+        for (StoredPipe storedPipe : pipes) {
+            out.writeUTF(storedPipe.type.name());
+            writeKeys(out, storedPipe.blocks);
+            writeKeys(out, storedPipe.inputs);
+            writeKeys(out, storedPipe.outputs);
+            writeKeys(out, storedPipe.chunkLoaders);
+            writeKeys(out, storedPipe.fingerprint != null ? storedPipe.fingerprint : new long[0]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private synchronized void write(Map<File, byte[]> files) {
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        for (Map.Entry<File, byte[]> entry : files.entrySet()) {
+            File temp = new File(folder, entry.getKey().getName() + ".tmp");
+            try {
+                Files.write(temp.toPath(), entry.getValue());
+                Files.move(temp.toPath(), entry.getKey().toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not write stored pipes to " + entry.getKey().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * starts reading the stored pipes of the loaded worlds and the periodic saving of the pipes
+     */
+    public static void load() {
+        for (World world : Bukkit.getWorlds()) {
+            getInstance().getWorld(world.getName());
+        }
+        long interval = PipesConfig.getTopologySaveInterval() * 20;
+        if (interval > 0) {
+            getInstance().taskId = Bukkit.getScheduler().runTaskTimer(Pipes.getInstance(), () -> getInstance().save(true), interval, interval).getTaskId();
+        }
+    }
+
+    /**
+     * stops the periodic saving and saves all pipes
+     */
+    public static void exit() {
+        if (getInstance().taskId != -1) {
+            Bukkit.getScheduler().cancelTask(getInstance().taskId);
+            getInstance().taskId = -1;
+        }
+        getInstance().save(false);
+    }
+
+    /**
+     * The stored pipes of a world by the block keys of their inputs and by the chunks they are in
+     */
+    private static class StoredWorld {
+
+        private final Map<Long, StoredPipe> inputs = new HashMap<>();
+        private final Map<Long, Set<StoredPipe>> chunks = new HashMap<>();
+        private final List<SimpleLocation> invalidated = new ArrayList<>();
+        private boolean loading = false;
+
+        private StoredPipe get(long input) {
+            return inputs.get(input);
+        }
+
+        private Set<StoredPipe> getChunk(long chunkKey) {
+            return chunks.get(chunkKey);
+        }
+
+        private Collection<StoredPipe> getPipes() {
+            return inputs.values();
+        }
+
+        private boolean isEmpty() {
+            return inputs.isEmpty();
+        }
+
+        private void add(StoredPipe storedPipe) {
+            for (long input : storedPipe.inputs) {
+                StoredPipe previous = inputs.put(input, storedPipe);
+                if (previous != null && previous != storedPipe) {
+                    remove(previous);
+                }
+            }
+            storedPipe.chunks.forEach(chunkKey -> chunks.computeIfAbsent(chunkKey, c -> new HashSet<>()).add(storedPipe));
+        }
+
+        private void remove(StoredPipe storedPipe) {
+            for (long input : storedPipe.inputs) {
+                inputs.remove(input, storedPipe);
+            }
+            storedPipe.chunks.forEach(chunkKey -> {
+                Set<StoredPipe> pipes = chunks.get(chunkKey);
+                if (pipes != null && pipes.remove(storedPipe) && pipes.isEmpty()) {
+                    chunks.remove(chunkKey);
+                }
+            });
+        }
+
+        private void clear() {
+            inputs.clear();
+            chunks.clear();
+        }
+    }
+
+    /**
+     * The layout of a pipe as packed block keys
+     */
+    private static class StoredPipe {
+
+        private final Material type;
+        private final long[] blocks;
+        private final long[] inputs;
+        private final long[] outputs;
+        private final long[] chunkLoaders;
+        private final LongHashSet chunks = new LongHashSet(4);
+
+        /**
+         * the keys of the chunks that the pipe is in or next to and the hash of the pipe parts in each of them,
+         * <code>null</code> if it isn't known
+         */
+        private final long[] fingerprint;
+        private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+        private StoredPipe(Material type, long[] blocks, long[] inputs, long[] outputs, long[] chunkLoaders, long[] fingerprint) {
+            this.type = type;
+            this.blocks = blocks;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.chunkLoaders = chunkLoaders;
+            this.fingerprint = fingerprint;
+            for (long[] keys : new long[][]{blocks, inputs, outputs, chunkLoaders}) {
+                for (long key : keys) {
+                    int x = SimpleLocation.getBlockKeyX(key);
+                    int y = SimpleLocation.getBlockKeyY(key);
+                    int z = SimpleLocation.getBlockKeyZ(key);
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    minZ = Math.min(minZ, z);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                    maxZ = Math.max(maxZ, z);
+                    chunks.add(Chunk.getChunkKey(x >> 4, z >> 4));
+                }
+            }
+        }
+
+        private StoredPipe(Pipe pipe) {
+            this(pipe.getType(), pipe.getPipeBlocks().getKeys(), toKeys(pipe.getInputs().keySet()),
+                    toKeys(pipe.getOutputs().keySet()), toKeys(pipe.getChunkLoaders().keySet()),
+                    createFingerprint(pipe.getInputs().keySet().iterator().next().getWorldName(), pipe));
+        }
+
+        /**
+         * Hash the indexed pipe parts of all chunks that contain a block of the pipe or a block next to it
+         *
+         * @param worldName the name of the world
+         * @param pipe      the pipe
+         * @return pairs of chunk key and hash or <code>null</code> if one of the chunks wasn't scanned for parts
+         */
+        private static long[] createFingerprint(String worldName, Pipe pipe) {
+            LongHashSet chunkKeys = new LongHashSet();
+            addChunks(chunkKeys, pipe.getPipeBlocks().getKeys());
+            for (Collection<SimpleLocation> parts : Arrays.asList(pipe.getInputs().keySet(), pipe.getOutputs().keySet(), pipe.getChunkLoaders().keySet())) {
+                for (SimpleLocation location : parts) {
+                    addChunks(chunkKeys, location.getX(), location.getZ());
+                }
+            }
+            long[] fingerprint = new long[chunkKeys.size() * 2];
+            int i = 0;
+            LongHashSet.Cursor cursor = chunkKeys.cursor();
+            while (cursor.next()) {
+                long chunkKey = cursor.get();
+                if (!PipeManager.getInstance().isScannedChunk(worldName, chunkKey)) {
+                    return null;
+                }
+                fingerprint[i++] = chunkKey;
+                fingerprint[i++] = hashParts(worldName, chunkKey);
+            }
+            return fingerprint;
+        }
+
+        private static void addChunks(LongHashSet chunkKeys, long[] blockKeys) {
+            for (long blockKey : blockKeys) {
+                addChunks(chunkKeys, SimpleLocation.getBlockKeyX(blockKey), SimpleLocation.getBlockKeyZ(blockKey));
+            }
+        }
+
+        private static void addChunks(LongHashSet chunkKeys, int x, int z) {
+            chunkKeys.add(Chunk.getChunkKey(x >> 4, z >> 4));
+            // blocks on the edge of a chunk touch the next one
+            chunkKeys.add(Chunk.getChunkKey((x - 1) >> 4, z >> 4));
+            chunkKeys.add(Chunk.getChunkKey((x + 1) >> 4, z >> 4));
+            chunkKeys.add(Chunk.getChunkKey(x >> 4, (z - 1) >> 4));
+            chunkKeys.add(Chunk.getChunkKey(x >> 4, (z + 1) >> 4));
+        }
+
+        private static long hashParts(String worldName, long chunkKey) {
+            LongHashSet parts = PipeManager.getInstance().getIndexedParts(worldName, chunkKey);
+            long hash = 0;
+            if (parts != null) {
+                LongHashSet.Cursor cursor = parts.cursor();
+                while (cursor.next()) {
+                    // order independent so that it doesn't depend on the set's layout
+                    long h = cursor.get() * 0x9E3779B97F4A7C15L;
+                    hash += h ^ (h >>> 32);
+                }
+            }
+            return hash;
+        }
+
+        /**
+         * returns whether or not the pipe parts in and around the chunks of this pipe are still the same as
+         * when it was stored. This only uses the part index and doesn't access any blocks.
+         *
+         * @param worldName the name of the world
+         * @return <code>true</code> if the fingerprint is known and matches
+         */
+        private boolean matchesFingerprint(String worldName) {
+            if (fingerprint == null) {
+                return false;
+            }
+            for (int i = 0; i < fingerprint.length; i += 2) {
+                if (!PipeManager.getInstance().isScannedChunk(worldName, fingerprint[i])
+                        || hashParts(worldName, fingerprint[i]) != fingerprint[i + 1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long[] toKeys(Collection<SimpleLocation> locations) {
+            long[] keys = new long[locations.size()];
+            int i = 0;
+            for (SimpleLocation location : locations) {
+                keys[i++] = location.getBlockKey();
+            }
+            return keys;
+        }
+
+        /**
+         * returns whether or not all chunks of the pipe are loaded
+         *
+         * @param world the world of the pipe
+         * @return <code>true</code> if all chunks are loaded
+         */
+        private boolean isLoaded(World world) {
+            for (long[] keys : new long[][]{blocks, inputs, outputs, chunkLoaders}) {
+                for (long key : keys) {
+                    if (!world.isChunkLoaded(SimpleLocation.getBlockKeyX(key) >> 4, SimpleLocation.getBlockKeyZ(key) >> 4)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * returns whether or not a block change at a location could change this pipe, that is if it is inside of
+         * or right next to the area of the pipe
+         *
+         * @param location the location
+         * @return <code>true</code> if the location is in or next to the pipe's area
+         */
+        private boolean isNear(SimpleLocation location) {
+            return location.getX() >= minX - 1 && location.getX() <= maxX + 1
+                    && location.getY() >= minY - 1 && location.getY() <= maxY + 1
+                    && location.getZ() >= minZ - 1 && location.getZ() <= maxZ + 1;
+        }
+
+        private boolean hasInput(StoredWorld stored) {
+            for (long input : inputs) {
+                if (stored.get(input) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean hasInput(LongHashSet keys) {
+            for (long input : inputs) {
+                if (keys.contains(input)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
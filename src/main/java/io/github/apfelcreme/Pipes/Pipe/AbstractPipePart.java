@@ -6,6 +6,7 @@ import de.themoep.inventorygui.GuiStateElement;
 import de.themoep.inventorygui.GuiStorageElement;
 import de.themoep.inventorygui.InventoryGui;
 import de.themoep.inventorygui.StaticGuiElement;
+import io.github.apfelcreme.Pipes.Manager.PipeManager;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesItem;
@@ -19,6 +20,7 @@ import net.md_5.bungee.api.chat.hover.content.Text;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
+import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.Container;
 import org.bukkit.configuration.ConfigurationSection;
@@ -37,9 +39,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -67,11 +67,47 @@ public abstract class AbstractPipePart {
 
     private final PipesItem type;
     private final SimpleLocation location;
-    private Map<Option<?>, Value<?>> options = new HashMap<>();
+    /**
+     * the options of this part, indexed by their ordinal
+     */
+    private final Option<?>[] optionKeys;
+
+    /**
+     * the values of the options that were set, indexed by the option's ordinal
+     */
+    private final Value<?>[] optionValues;
+
+    /**
+     * the unboxed values of boolean options including their defaults, indexed by the option's ordinal
+     */
+    private final boolean[] booleanValues;
+
+    /**
+     * the current transfer cycle, cached holders are only used in the cycle they were resolved in as
+     * their tile entity might have been replaced without an event in the meantime
+     */
+    private static int holderCycle = 0;
+
+    /**
+     * the block of this part and its non-snapshot state, <code>null</code> if they need to be resolved again
+     */
+    private Block block = null;
+    private Container holder = null;
+    private int holderResolvedCycle = 0;
 
     protected AbstractPipePart(PipesItem type, Location location) {
         this.type = type;
         this.location = new SimpleLocation(location);
+        Option<?>[] available = getOptions();
+        optionKeys = new Option<?>[available.length];
+        optionValues = new Value<?>[available.length];
+        booleanValues = new boolean[available.length];
+        for (Option<?> option : available) {
+            optionKeys[option.ordinal()] = option;
+            if (option.getValueType() == Boolean.class) {
+                booleanValues[option.ordinal()] = (Boolean) option.getDefaultValue().getValue();
+            }
+        }
         loadOptions();
     }
     
@@ -94,22 +130,72 @@ public abstract class AbstractPipePart {
     }
 
     /**
-     * returns the inventory holder of pipe part
+     * returns the block of this pipe part
+     *
+     * @return the block or <code>null</code> if the world isn't loaded
+     */
+    public Block getBlock() {
+        if (block == null) {
+            block = location.getBlock();
+        }
+        return block;
+    }
+
+    /**
+     * Start a new transfer cycle, all cached holders get resolved again when they are used next
+     */
+    public static void nextHolderCycle() {
+        holderCycle++;
+    }
+
+    /**
+     * returns the current transfer cycle
+     *
+     * @return the cycle number
+     */
+    protected static int getHolderCycle() {
+        return holderCycle;
+    }
+
+    /**
+     * returns the inventory holder of pipe part. The non-snapshot state is cached for the current
+     * transfer cycle until {@link #invalidateHolder()} is called or the block's type changes.
      *
      * @return the inventory holder of pipe part
      */
     public Container getHolder() {
-        BlockState state = location.getBlock().getState(false);
+        Block block = getBlock();
+        if (block == null) {
+            return null;
+        }
+        if (holder != null && holderResolvedCycle == holderCycle && block.getType() == holder.getType()) {
+            return holder;
+        }
+        holder = null;
+        BlockState state = block.getState(false);
         // Paper's non-snapshot BlockState's are broken in some cases
         if (state instanceof PersistentDataHolder && ((PersistentDataHolder) state).getPersistentDataContainer() == null) {
-            state = location.getBlock().getState(true);
+            // Snapshots don't reflect later changes, don't cache them
+            state = block.getState(true);
+            return type.check(state) ? (Container) state : null;
         }
         if (type.check(state)) {
-            return (Container) state;
+            holder = (Container) state;
+            holderResolvedCycle = holderCycle;
+            return holder;
         }
         return null;
     }
 
+    /**
+     * Drop the cached block and inventory holder, this needs to be called when the block
+     * gets replaced or its chunk unloads
+     */
+    public void invalidateHolder() {
+        block = null;
+        holder = null;
+    }
+
     /**
      * Get a certain option value of this pipe part
      * @param <T>       The type of the value
@@ -128,13 +214,31 @@ public abstract class AbstractPipePart {
      * @return              The value of the option or <code>null</code> if it wasn't set
      */
     public <T> Value<T> getValue(Option<T> option, Value<T> defaultValue) {
-        Value<?> value = options.getOrDefault(option, defaultValue);
-        if (!option.isValid(value)) {
-            options.remove(option);
-            Pipes.getInstance().getLogger().log(Level.SEVERE, "Removed stored value " + value + " for option " + option + " from part at " + getLocation() + " because it's not compatible with value type <" + option.getValueType().getSimpleName() + ">!");
-            return null;
+        if (hasOption(option)) {
+            Value<?> value = optionValues[option.ordinal()];
+            if (value != null) {
+                // Values are validated when they are set
+                return (Value<T>) value;
+            }
         }
-        return (Value<T>) value;
+        return defaultValue;
+    }
+
+    /**
+     * Get a certain boolean option of this pipe part without boxing
+     * @param option    The option to get
+     * @return          The value of the option or its default value if it wasn't set
+     */
+    public boolean getBoolean(Option<Boolean> option) {
+        if (hasOption(option)) {
+            return booleanValues[option.ordinal()];
+        }
+        return option.getDefaultValue().getValue();
+    }
+
+    private boolean hasOption(Option<?> option) {
+        int index = option.ordinal();
+        return index >= 0 && index < optionKeys.length && optionKeys[index] == option;
     }
 
     /**
@@ -181,7 +285,13 @@ public abstract class AbstractPipePart {
         if (!option.isValid(value)) {
             throw new IllegalArgumentException("The option " + option + "< " + option.getValueType().getSimpleName() + "> does not accept the value " + value + "!");
         }
-        options.put(option, value);
+        if (!hasOption(option)) {
+            throw new IllegalArgumentException("The option " + option + " is not available for " + getType() + "!");
+        }
+        optionValues[option.ordinal()] = value;
+        if (option.getValueType() == Boolean.class) {
+            booleanValues[option.ordinal()] = (Boolean) (value != null ? value : option.getDefaultValue()).getValue();
+        }
         if (save) {
             Container holder = getHolder();
             if (holder != null) {
@@ -205,6 +315,7 @@ public abstract class AbstractPipePart {
                 }
 
                 holder.update();
+                PipeManager.getInstance().onPartChanged(this);
             }
         }
     }
@@ -215,8 +326,10 @@ public abstract class AbstractPipePart {
      */
     protected String getOptionsString() {
         StringBuilder s = new StringBuilder();
-        for (Map.Entry<Option<?>, Value<?>> option : options.entrySet()) {
-            s.append(',').append(option.getKey().name()).append('=').append(option.getValue().getValue());
+        for (int i = 0; i < optionKeys.length; i++) {
+            if (optionValues[i] != null) {
+                s.append(',').append(optionKeys[i].name()).append('=').append(optionValues[i].getValue());
+            }
         }
         return s.toString();
     }
@@ -632,6 +745,7 @@ public abstract class AbstractPipePart {
         private final Class<?> valueType;
         private final Value<T>[] possibleValues;
         private final GuiPosition guiPosition;
+        private int ordinal = -1;
 
         /**
          * An option that this pipe part can have
@@ -682,6 +796,18 @@ public abstract class AbstractPipePart {
             return name;
         }
 
+        /**
+         * Get the position of this option in the options list that it was added to
+         * @return  The ordinal of this option or -1 if it wasn't added to a list
+         */
+        public int ordinal() {
+            return ordinal;
+        }
+
+        void setOrdinal(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
         /**
          * Get the class of the values that this option accepts
          * @return  The class of the values that this option accepts
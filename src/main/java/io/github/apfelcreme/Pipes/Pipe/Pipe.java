@@ -1,18 +1,23 @@
 package io.github.apfelcreme.Pipes.Pipe;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
 import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.Particle;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 /*
@@ -35,17 +40,47 @@ import java.util.Map;
  */
 public class Pipe {
 
+    private static final int MAX_CACHED_ROUTES = 256;
+
     private final LinkedHashMap<SimpleLocation, PipeInput> inputs;
     private final LinkedHashMap<SimpleLocation, PipeOutput> outputs;
     private final LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders;
-    private final LinkedHashSet<SimpleLocation> pipeBlocks;
+    private final PipeBlockSet pipeBlocks;
     private final Material type;
 
     private int lastTransfer = 0;
     private int transfers = 0;
 
+    /**
+     * the items that this pipe may still move, <code>-1</code> if the bucket wasn't filled yet
+     */
+    private double itemTokens = -1;
+    private int lastTokenRefill = 0;
+
+    /**
+     * the tick at which this pipe should be checked again
+     */
+    private int refreshTick = 0;
+
+    /**
+     * the keys of all chunks that this pipe's blocks, parts and targets are in
+     */
+    private final LongHashSet chunkKeys = new LongHashSet(4);
+
+    /**
+     * the keys of the chunks of this pipe that are currently not loaded
+     */
+    private final LongHashSet unloadedChunks = new LongHashSet(4);
+
+    /**
+     * the outputs by the items that were routed through this pipe, in-filter outputs first.
+     * Items without meta only need their material as the key.
+     */
+    private final Map<Material, List<Route>> materialRoutes = new EnumMap<>(Material.class);
+    private final Map<ItemStack, List<Route>> itemRoutes = new HashMap<>();
+
     public Pipe(LinkedHashMap<SimpleLocation, PipeInput> inputs, LinkedHashMap<SimpleLocation, PipeOutput> outputs,
-                LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders, LinkedHashSet<SimpleLocation> pipeBlocks, Material type) {
+                LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders, PipeBlockSet pipeBlocks, Material type) {
         this.inputs = inputs;
         this.outputs = outputs;
         this.chunkLoaders = chunkLoaders;
@@ -53,6 +88,54 @@ public class Pipe {
         this.type = type;
     }
 
+    /**
+     * returns the outputs that an item can be routed to in the order they should be tried, outputs that have
+     * the item in their filter come first. The result is cached until {@link #invalidateRoutes()} is called.
+     *
+     * @param itemStack the item to route
+     * @return the routes, one for each output
+     */
+    public List<Route> getRoutes(ItemStack itemStack) {
+        boolean hasMeta = itemStack.hasItemMeta();
+        List<Route> routes = hasMeta ? itemRoutes.get(itemStack.asOne()) : materialRoutes.get(itemStack.getType());
+        if (routes != null) {
+            return routes;
+        }
+
+        routes = new ArrayList<>(outputs.size());
+        int inFilter = 0;
+        boolean cacheable = true;
+        for (PipeOutput output : outputs.values()) {
+            PipeOutput.AcceptResult filterResult = output.getFilterResult(itemStack);
+            cacheable &= filterResult.getType() != PipeOutput.ResultType.DENY_INVALID;
+            if (filterResult.isInFilter()) {
+                routes.add(inFilter++, new Route(output, filterResult));
+            } else {
+                routes.add(new Route(output, filterResult));
+            }
+        }
+
+        if (cacheable) {
+            if (materialRoutes.size() + itemRoutes.size() >= MAX_CACHED_ROUTES) {
+                invalidateRoutes();
+            }
+            if (hasMeta) {
+                itemRoutes.put(itemStack.asOne(), routes);
+            } else {
+                materialRoutes.put(itemStack.getType(), routes);
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * clears the cached routes, needs to be called when the outputs or their filters change
+     */
+    public void invalidateRoutes() {
+        materialRoutes.clear();
+        itemRoutes.clear();
+    }
+
     /**
      * returns the set of inputs
      *
@@ -86,7 +169,7 @@ public class Pipe {
      *
      * @return the set of pipe blocks
      */
-    public LinkedHashSet<SimpleLocation> getPipeBlocks() {
+    public PipeBlockSet getPipeBlocks() {
         return pipeBlocks;
     }
 
@@ -145,6 +228,100 @@ public class Pipe {
         this.transfers = transfers;
     }
 
+    /**
+     * Get how many items this pipe may still move according to the throughput limit of its glass type.
+     * The items refill by the limit's rate per second up to its burst amount.
+     *
+     * @param tick the current tick
+     * @return the amount of items or {@link Integer#MAX_VALUE} if the throughput isn't limited
+     */
+    public int getAvailableItems(int tick) {
+        double rate = PipesConfig.getThroughputRate(type);
+        if (rate <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        refillItems(tick, rate);
+        return (int) itemTokens;
+    }
+
+    private void refillItems(int tick, double rate) {
+        int burst = PipesConfig.getThroughputBurst(type);
+        if (itemTokens < 0) {
+            itemTokens = burst;
+        } else if (tick != lastTokenRefill) {
+            itemTokens = Math.min(burst, itemTokens + (tick - lastTokenRefill) * rate / 20);
+        }
+        lastTokenRefill = tick;
+    }
+
+    /**
+     * returns the items that this pipe may still move as of the last refill, <code>-1</code> if it wasn't used yet
+     *
+     * @return the items
+     * @see #getLastTokenRefill()
+     */
+    public double getItemTokens() {
+        return itemTokens;
+    }
+
+    /**
+     * returns the tick at which the throughput limit of this pipe was last refilled
+     *
+     * @return the tick
+     */
+    public int getLastTokenRefill() {
+        return lastTokenRefill;
+    }
+
+    /**
+     * Take over the throughput limit of a pipe that this one replaces. If the pipe already has less
+     * items left then it keeps its own ones so that merging pipes doesn't refill any of them.
+     *
+     * @param tokens     the items that the replaced pipe could still move
+     * @param lastRefill the tick at which the replaced pipe was last refilled
+     * @param tick       the current tick
+     */
+    public void inheritItemTokens(double tokens, int lastRefill, int tick) {
+        double rate = PipesConfig.getThroughputRate(type);
+        if (tokens < 0 || rate <= 0) {
+            return;
+        }
+        refillItems(tick, rate);
+        double inherited = Math.min(PipesConfig.getThroughputBurst(type), tokens + (tick - lastRefill) * rate / 20);
+        if (inherited < itemTokens) {
+            itemTokens = inherited;
+        }
+    }
+
+    /**
+     * Take moved items from the throughput limit of this pipe
+     *
+     * @param amount the amount of items that were moved
+     */
+    public void consumeItems(int amount) {
+        if (itemTokens >= 0) {
+            itemTokens = Math.max(0, itemTokens - amount);
+        }
+    }
+
+    /**
+     * Get the tick at which this pipe should be checked again
+     *
+     * @return the refresh tick
+     */
+    public int getRefreshTick() {
+        return refreshTick;
+    }
+
+    /**
+     * Set the tick at which this pipe should be checked again
+     *
+     * @param refreshTick the refresh tick
+     */
+    public void setRefreshTick(int refreshTick) {
+        this.refreshTick = refreshTick;
+    }
+
     /**
      * displays particles around a pipe
      * @param players The player to show the pipe to, none to show it to everyone
@@ -158,7 +335,7 @@ public class Pipe {
         World world = null;
         for (SimpleLocation simpleLocation : locations) {
             if (world == null) {
-                world = Bukkit.getWorld(simpleLocation.getWorldName());
+                world = simpleLocation.getWorld();
             }
             if (players.length == 0) {
                 for (int[] offset : PipesUtil.OFFSETS) {
@@ -220,23 +397,114 @@ public class Pipe {
     }
 
     public void checkLoaded(SimpleLocation startLocation) throws ChunkNotLoadedException {
-        World world = Bukkit.getWorld(startLocation.getWorldName());
-        if (world == null) {
-            return;
+        if (!unloadedChunks.isEmpty()) {
+            throw new ChunkNotLoadedException(startLocation);
         }
+    }
 
-        Multimap<Integer, Integer> chunks = MultimapBuilder.hashKeys().hashSetValues().build();
-        LinkedHashSet<SimpleLocation> locations = new LinkedHashSet<>(pipeBlocks);
-        locations.addAll(inputs.keySet());
-        locations.addAll(outputs.keySet());
-        outputs.values().stream().map(PipeOutput::getTargetLocation).forEach(locations::add);
-        for (SimpleLocation location : locations) {
-            chunks.put(location.getX() >> 4, location.getZ() >> 4);
+    /**
+     * Calculate the chunks of this pipe again and check which of them are not loaded.
+     * This needs to be called whenever blocks or parts are added to or removed from the pipe.
+     */
+    public void calculateChunks() {
+        chunkKeys.clear();
+        for (int i = 0; i < pipeBlocks.size(); i++) {
+            long blockKey = pipeBlocks.getKey(i);
+            chunkKeys.add(Chunk.getChunkKey(SimpleLocation.getBlockKeyX(blockKey) >> 4, SimpleLocation.getBlockKeyZ(blockKey) >> 4));
+        }
+        for (SimpleLocation location : inputs.keySet()) {
+            chunkKeys.add(location.getChunkKey());
+        }
+        for (PipeOutput output : outputs.values()) {
+            chunkKeys.add(output.getLocation().getChunkKey());
+            chunkKeys.add(output.getTargetLocation().getChunkKey());
         }
-        for (Map.Entry<Integer, Integer> chunk : chunks.entries()) {
-            if (!world.isChunkLoaded(chunk.getKey(), chunk.getValue())) {
-                throw new ChunkNotLoadedException(startLocation);
+
+        World world = getWorld();
+        unloadedChunks.clear();
+        if (world != null) {
+            LongHashSet.Cursor cursor = chunkKeys.cursor();
+            while (cursor.next()) {
+                if (!world.isChunkLoaded((int) cursor.get(), (int) (cursor.get() >> 32))) {
+                    unloadedChunks.add(cursor.get());
+                }
             }
         }
     }
+
+    /**
+     * returns the keys of all chunks that this pipe's blocks, parts and targets are in
+     *
+     * @return the chunk keys
+     */
+    public LongHashSet getChunkKeys() {
+        return chunkKeys;
+    }
+
+    /**
+     * returns the amount of this pipe's chunks that are currently not loaded
+     *
+     * @return the amount of unloaded chunks
+     */
+    public int getUnloadedChunks() {
+        return unloadedChunks.size();
+    }
+
+    /**
+     * Called when one of the chunks of this pipe got loaded
+     *
+     * @param chunkKey the key of the chunk
+     */
+    public void onChunkLoad(long chunkKey) {
+        unloadedChunks.remove(chunkKey);
+    }
+
+    /**
+     * Called when one of the chunks of this pipe got unloaded
+     *
+     * @param chunkKey the key of the chunk
+     */
+    public void onChunkUnload(long chunkKey) {
+        if (chunkKeys.contains(chunkKey)) {
+            unloadedChunks.add(chunkKey);
+        }
+    }
+
+    /**
+     * returns the world this pipe is in
+     *
+     * @return the world or <code>null</code> if it isn't loaded
+     */
+    public World getWorld() {
+        if (!inputs.isEmpty()) {
+            return inputs.keySet().iterator().next().getWorld();
+        } else if (!outputs.isEmpty()) {
+            return outputs.keySet().iterator().next().getWorld();
+        } else if (!pipeBlocks.isEmpty()) {
+            return Bukkit.getWorld(pipeBlocks.getWorldName());
+        }
+        return null;
+    }
+
+    /**
+     * An output that an item can be routed to together with how the output's filter handles the item
+     */
+    public static class Route {
+
+        private final PipeOutput output;
+        private final PipeOutput.AcceptResult filterResult;
+
+        public Route(PipeOutput output, PipeOutput.AcceptResult filterResult) {
+            this.output = output;
+            this.filterResult = filterResult;
+        }
+
+        public PipeOutput getOutput() {
+            return output;
+        }
+
+        public PipeOutput.AcceptResult getFilterResult() {
+            return filterResult;
+        }
+    }
 }
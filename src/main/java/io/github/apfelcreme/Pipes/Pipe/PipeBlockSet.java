@@ -0,0 +1,309 @@
+package io.github.apfelcreme.Pipes.Pipe;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Copyright 2021 Max Lee (https://github.com/Phoenix616/)
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The glass blocks of a pipe, stored as a sorted array of packed block keys in a single world.
+ * Locations are only created when iterating, lookups use a binary search on the keys.
+ */
+public class PipeBlockSet extends AbstractSet<SimpleLocation> {
+
+    /**
+     * the estimated size of a block in a LinkedHashSet of SimpleLocations plus its entry in a HashMap
+     * from location to pipe, this is how pipe blocks were stored before
+     */
+    private static final int HASHED_BYTES_PER_BLOCK = 40 + 32 + 32 + 2 * 11;
+    private static final int HASHED_BYTES_PER_SET = 2 * (48 + 16);
+
+    private final String worldName;
+    private long[] keys;
+    private int size = 0;
+    private int modCount = 0;
+
+    public PipeBlockSet(String worldName) {
+        this(worldName, new long[4], 0);
+    }
+
+    /**
+     * Create a set from block keys
+     *
+     * @param worldName the name of the world
+     * @param keys      the block keys, the array is used by the set
+     * @param size      how many of the keys in the array are used
+     */
+    public PipeBlockSet(String worldName, long[] keys, int size) {
+        this.worldName = worldName;
+        this.keys = keys.length > 0 ? keys : new long[4];
+        Arrays.sort(this.keys, 0, size);
+        for (int i = 0; i < size; i++) {
+            if (this.size == 0 || this.keys[this.size - 1] != this.keys[i]) {
+                this.keys[this.size++] = this.keys[i];
+            }
+        }
+    }
+
+    public PipeBlockSet(String worldName, Collection<SimpleLocation> locations) {
+        this(worldName, toKeys(locations), locations.size());
+    }
+
+    private static long[] toKeys(Collection<SimpleLocation> locations) {
+        long[] keys = new long[locations.size()];
+        int i = 0;
+        for (SimpleLocation location : locations) {
+            keys[i++] = location.getBlockKey();
+        }
+        return keys;
+    }
+
+    /**
+     * returns the name of the world of the blocks
+     *
+     * @return the world name
+     */
+    public String getWorldName() {
+        return worldName;
+    }
+
+    /**
+     * returns the block key at an index, the keys are sorted
+     *
+     * @param index the index
+     * @return the block key
+     */
+    public long getKey(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return keys[index];
+    }
+
+    /**
+     * returns a copy of the sorted block keys
+     *
+     * @return the block keys
+     */
+    public long[] getKeys() {
+        return Arrays.copyOf(keys, size);
+    }
+
+    /**
+     * Check whether or not the set contains a block
+     *
+     * @param blockKey the block key
+     * @return <code>true</code> if the block is in the set
+     */
+    public boolean contains(long blockKey) {
+        return Arrays.binarySearch(keys, 0, size, blockKey) >= 0;
+    }
+
+    /**
+     * Add a block to the set
+     *
+     * @param blockKey the block key
+     * @return <code>true</code> if the block wasn't in the set yet
+     */
+    public boolean add(long blockKey) {
+        int index = Arrays.binarySearch(keys, 0, size, blockKey);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length + (keys.length >> 1) + 1);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        keys[index] = blockKey;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Remove a block from the set
+     *
+     * @param blockKey the block key
+     * @return <code>true</code> if the block was in the set
+     */
+    public boolean remove(long blockKey) {
+        int index = Arrays.binarySearch(keys, 0, size, blockKey);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        size--;
+        modCount++;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof SimpleLocation
+                && ((SimpleLocation) o).getWorldName().equals(worldName)
+                && contains(((SimpleLocation) o).getBlockKey());
+    }
+
+    @Override
+    public boolean add(SimpleLocation location) {
+        if (!location.getWorldName().equals(worldName)) {
+            throw new IllegalArgumentException("Location " + location + " is not in world " + worldName);
+        }
+        return add(location.getBlockKey());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof SimpleLocation
+                && ((SimpleLocation) o).getWorldName().equals(worldName)
+                && remove(((SimpleLocation) o).getBlockKey());
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends SimpleLocation> c) {
+        if (!(c instanceof PipeBlockSet) || !((PipeBlockSet) c).worldName.equals(worldName)) {
+            return super.addAll(c);
+        }
+        // Merge the two sorted arrays
+        PipeBlockSet other = (PipeBlockSet) c;
+        long[] merged = new long[size + other.size];
+        int i = 0, j = 0, n = 0;
+        while (i < size || j < other.size) {
+            long next;
+            if (j >= other.size || (i < size && keys[i] <= other.keys[j])) {
+                next = keys[i++];
+            } else {
+                next = other.keys[j++];
+            }
+            if (n == 0 || merged[n - 1] != next) {
+                merged[n++] = next;
+            }
+        }
+        boolean changed = n != size;
+        keys = merged;
+        size = n;
+        modCount++;
+        return changed;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<SimpleLocation> iterator() {
+        return new Iterator<SimpleLocation>() {
+            private int index = 0;
+            private int expectedModCount = modCount;
+            private boolean removable = false;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public SimpleLocation next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                removable = true;
+                return SimpleLocation.fromBlockKey(worldName, keys[index++]);
+            }
+
+            @Override
+            public void remove() {
+                if (!removable) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                removeAt(--index);
+                expectedModCount = modCount;
+                removable = false;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof PipeBlockSet) {
+            PipeBlockSet other = (PipeBlockSet) o;
+            if (size != other.size || !worldName.equals(other.worldName)) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (keys[i] != other.keys[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < size; i++) {
+            hash += SimpleLocation.hashCode(worldName,
+                    SimpleLocation.getBlockKeyX(keys[i]), SimpleLocation.getBlockKeyY(keys[i]), SimpleLocation.getBlockKeyZ(keys[i]));
+        }
+        return hash;
+    }
+
+    /**
+     * returns the estimated amount of bytes this set uses
+     *
+     * @return the estimated size in bytes
+     */
+    public long getMemoryUsage() {
+        return 32 + 16 + 8L * keys.length;
+    }
+
+    /**
+     * returns the estimated amount of bytes that the blocks of a pipe used when they were stored
+     * as SimpleLocations in a LinkedHashSet and in a HashMap from location to pipe
+     *
+     * @param blocks the amount of blocks
+     * @return the estimated size in bytes
+     */
+    public static long getHashedMemoryUsage(int blocks) {
+        return HASHED_BYTES_PER_SET + (long) HASHED_BYTES_PER_BLOCK * blocks;
+    }
+}
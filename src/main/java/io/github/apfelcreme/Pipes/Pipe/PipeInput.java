@@ -99,6 +99,7 @@ public class PipeInput extends AbstractPipePart {
         public static final Option<Boolean> MERGE = add(new Option<>("MERGE", Value.TRUE, Value.FALSE));
 
         protected static <T> Option<T> add(Option<T> option) {
+            option.setOrdinal(VALUES.size());
             VALUES.put(option.name().toLowerCase(), option);
             return option;
         }
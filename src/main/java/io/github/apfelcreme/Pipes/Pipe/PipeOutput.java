@@ -1,9 +1,11 @@
 package io.github.apfelcreme.Pipes.Pipe;
 
 import io.github.apfelcreme.Pipes.PipesItem;
+import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
+import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
@@ -13,6 +15,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -43,23 +46,65 @@ public class PipeOutput extends AbstractPipePart {
 
     private final BlockFace facing;
 
+    private static final AcceptResult DENY_INVALID_RESULT = new AcceptResult(ResultType.DENY_INVALID, null);
+    private static final AcceptResult DENY_REDSTONE_RESULT = new AcceptResult(ResultType.DENY_REDSTONE, null);
+    private static final AcceptResult DENY_WHITELIST_RESULT = new AcceptResult(ResultType.DENY_WHITELIST, null);
+    private static final AcceptResult ACCEPT_RESULT = new AcceptResult(ResultType.ACCEPT, null);
+
+    /**
+     * the filter items by their filter key, <code>null</code> if it needs to be compiled again
+     */
+    private Map<FilterKey, ItemStack> compiledFilter = null;
+
+    /**
+     * the target block and its non-snapshot inventory holder, <code>null</code> if they need to be resolved again
+     */
+    private Block targetBlock = null;
+    private InventoryHolder targetHolder = null;
+    private int targetResolvedCycle = 0;
+
     public PipeOutput(BlockState state) {
         super(PipesItem.PIPE_OUTPUT, state.getLocation());
         this.facing = ((Directional) state.getData()).getFacing();
     }
 
     /**
-     * returns the InventoryHolder
+     * returns the block that this output points into
+     *
+     * @return the target block or <code>null</code> if the world isn't loaded
+     */
+    public Block getTargetBlock() {
+        if (targetBlock == null) {
+            targetBlock = getTargetLocation().getBlock();
+        }
+        return targetBlock;
+    }
+
+    /**
+     * returns the InventoryHolder. It is cached for the current transfer cycle until {@link #invalidateHolder()}
+     * is called or the target's type changes.
      *
      * @return the InventoryHolder
      */
     public InventoryHolder getTargetHolder() {
-        Block block = getTargetLocation().getBlock();
-        BlockState state = block != null ? block.getState(false) : null;
-        if (state != null && state instanceof InventoryHolder) {
-            return (InventoryHolder) state;
+        Block block = getTargetBlock();
+        if (block == null) {
+            return null;
+        }
+        if (targetHolder != null && targetResolvedCycle == getHolderCycle() && block.getType() == ((BlockState) targetHolder).getType()) {
+            return targetHolder;
         }
-        return null;
+        BlockState state = block.getState(false);
+        targetHolder = state instanceof InventoryHolder ? (InventoryHolder) state : null;
+        targetResolvedCycle = getHolderCycle();
+        return targetHolder;
+    }
+
+    @Override
+    public void invalidateHolder() {
+        super.invalidateHolder();
+        targetBlock = null;
+        targetHolder = null;
     }
 
     public SimpleLocation getTargetLocation() {
@@ -96,39 +141,106 @@ public class PipeOutput extends AbstractPipePart {
      * @return  A result that represents why or why not the item is accepted by this output
      */
     public AcceptResult accepts(PipeInput input, ItemStack itemStack) {
-        Block block = getLocation().getBlock();
-        BlockState state = block != null ? block.getState(false) : null;
-        if (state == null || !(state instanceof InventoryHolder)) {
-            return new AcceptResult(ResultType.DENY_INVALID, null);
+        return accepts(input, getFilterResult(itemStack));
+    }
+
+    /**
+     * Check whether or not this output can accept an item with a known filter result.
+     * This only checks the parts that can change without the output changing, e.g. redstone.
+     *
+     * @param input         The input that tries to move the item
+     * @param filterResult  The result of {@link #getFilterResult(ItemStack)} for the item
+     * @return  A result that represents why or why not the item is accepted by this output
+     */
+    public AcceptResult accepts(PipeInput input, AcceptResult filterResult) {
+        Block block = getBlock();
+        if (filterResult.getType() == ResultType.DENY_INVALID || block == null || block.getType() != getType().getMaterial()) {
+            return DENY_INVALID_RESULT;
         }
+        boolean powered = block.isBlockPowered();
         Options.Overflow outputOverflow = getOption(Options.OVERFLOW);
-        if ((outputOverflow == Options.Overflow.TRUE || outputOverflow == Options.Overflow.INPUT && input.getOption(PipeInput.Options.OVERFLOW))
-                && block.isBlockPowered()) {
-            return new AcceptResult(ResultType.DENY_REDSTONE, null);
+        if (powered && (outputOverflow == Options.Overflow.TRUE || outputOverflow == Options.Overflow.INPUT && input.getBoolean(PipeInput.Options.OVERFLOW))) {
+            return DENY_REDSTONE_RESULT;
         }
 
-        ItemStack filter = null;
-        boolean isEmpty = true;
-        boolean isWhitelist = getOption(Options.WHITELIST);
-        for (ItemStack filterItem : ((InventoryHolder) state).getInventory().getContents()) {
-            isEmpty &= filterItem == null;
-            if (matchesFilter(filterItem, itemStack)) {
-                if (isWhitelist) {
-                    filter = filterItem;
-                    break;
-                } else {
-                    return new AcceptResult(ResultType.DENY_BLACKLIST, filterItem);
-                }
+        if (filterResult.getType() == ResultType.DENY_BLACKLIST) {
+            return filterResult;
+        } else if (powered) {
+            return filterResult.isInFilter() ? new AcceptResult(ResultType.DENY_REDSTONE, filterResult.getFilterItem()) : DENY_REDSTONE_RESULT;
+        }
+        return filterResult;
+    }
+
+    /**
+     * Check how the filter of this output handles an item. The result only changes when the output
+     * changes so it can be cached until {@link #invalidateFilter()} is called.
+     *
+     * @param itemStack The item to check
+     * @return  An accept result of the type {@link ResultType#ACCEPT}, {@link ResultType#DENY_BLACKLIST},
+     *          {@link ResultType#DENY_WHITELIST} or {@link ResultType#DENY_INVALID}
+     */
+    public AcceptResult getFilterResult(ItemStack itemStack) {
+        if (compiledFilter == null) {
+            InventoryHolder holder = getHolder();
+            if (holder == null) {
+                return DENY_INVALID_RESULT;
             }
+            compileFilter(holder.getInventory().getContents());
         }
 
-        if (block.isBlockPowered()) {
-            return new AcceptResult(ResultType.DENY_REDSTONE, filter);
-        } else if (!isEmpty && isWhitelist && filter == null) {
-            return new AcceptResult(ResultType.DENY_WHITELIST, null);
-        } else {
-            return new AcceptResult(ResultType.ACCEPT, filter);
+        boolean isEmpty = compiledFilter.isEmpty();
+        boolean isWhitelist = getBoolean(Options.WHITELIST);
+        ItemStack filter = isEmpty || itemStack == null ? null : compiledFilter.get(createFilterKey(itemStack));
+        if (filter != null) {
+            return new AcceptResult(isWhitelist ? ResultType.ACCEPT : ResultType.DENY_BLACKLIST, filter);
+        } else if (!isEmpty && isWhitelist) {
+            return DENY_WHITELIST_RESULT;
+        }
+        return ACCEPT_RESULT;
+    }
+
+    /**
+     * Compile the filter items into a map by their filter keys, the first item wins if multiple have the same key
+     * @param contents  The contents of the output's inventory
+     */
+    private void compileFilter(ItemStack[] contents) {
+        Map<FilterKey, ItemStack> filter = new HashMap<>();
+        for (ItemStack filterItem : contents) {
+            if (filterItem != null) {
+                filter.putIfAbsent(createFilterKey(filterItem), new ItemStack(filterItem));
+            }
         }
+        compiledFilter = filter;
+    }
+
+    /**
+     * Mark the compiled filter as outdated, it will be compiled again on the next check.
+     * This needs to be called when the inventory or the filter options of this output change.
+     */
+    public void invalidateFilter() {
+        compiledFilter = null;
+    }
+
+    /**
+     * Create the key of an item stack that only contains the properties that the filter options of this output respect.
+     * Two items have the same key if and only if they would match each other in {@link #matchesFilter(ItemStack, ItemStack)}.
+     * @param item  The item stack
+     * @return      The filter key
+     */
+    public FilterKey createFilterKey(ItemStack item) {
+        boolean dataFilter = getBoolean(Options.DATA_FILTER);
+        boolean displayFilter = getBoolean(Options.DISPLAY_FILTER);
+        boolean hasMeta = (dataFilter || displayFilter) && item.hasItemMeta();
+        ItemMeta meta = hasMeta ? item.getItemMeta() : null;
+        return new FilterKey(
+                getBoolean(Options.MATERIAL_FILTER) ? item.getType() : null,
+                getBoolean(Options.DAMAGE_FILTER) ? item.getDurability() : 0,
+                hasMeta,
+                dataFilter ? meta : null,
+                displayFilter && hasMeta && meta.hasDisplayName() ? meta.getDisplayName() : null,
+                displayFilter && hasMeta && meta.hasLore() ? meta.getLore() : null,
+                getBoolean(Options.ENCHANTMENT_FILTER) ? item.getEnchantments() : null
+        );
     }
 
     /**
@@ -142,7 +254,7 @@ public class PipeOutput extends AbstractPipePart {
             return false;
         }
 
-        if (getOption(Options.DATA_FILTER)) {
+        if (getBoolean(Options.DATA_FILTER)) {
             if (filter.hasItemMeta() != item.hasItemMeta()) {
                 return false;
             }
@@ -151,19 +263,19 @@ public class PipeOutput extends AbstractPipePart {
             }
         }
 
-        if (getOption(Options.MATERIAL_FILTER)) {
+        if (getBoolean(Options.MATERIAL_FILTER)) {
             if (filter.getType() != item.getType()) {
                 return false;
             }
         }
 
-        if (getOption(Options.DAMAGE_FILTER)) {
+        if (getBoolean(Options.DAMAGE_FILTER)) {
             if (filter.getDurability() != item.getDurability()) {
                 return false;
             }
         }
 
-        if (getOption(Options.DISPLAY_FILTER)) {
+        if (getBoolean(Options.DISPLAY_FILTER)) {
             if (filter.hasItemMeta() != item.hasItemMeta()) {
                 return false;
             }
@@ -185,7 +297,7 @@ public class PipeOutput extends AbstractPipePart {
             }
         }
 
-        if (getOption(Options.ENCHANTMENT_FILTER)) {
+        if (getBoolean(Options.ENCHANTMENT_FILTER)) {
             if (!filter.getEnchantments().equals(item.getEnchantments())) {
                 return false;
             }
@@ -244,6 +356,52 @@ public class PipeOutput extends AbstractPipePart {
         }
     }
 
+    /**
+     * The properties of an item that the filter of an output respects, the others are <code>null</code>
+     */
+    public static class FilterKey {
+
+        private final Material material;
+        private final short durability;
+        private final boolean hasMeta;
+        private final ItemMeta meta;
+        private final String displayName;
+        private final List<String> lore;
+        private final Map<Enchantment, Integer> enchantments;
+        private final int hash;
+
+        private FilterKey(Material material, short durability, boolean hasMeta, ItemMeta meta, String displayName, List<String> lore, Map<Enchantment, Integer> enchantments) {
+            this.material = material;
+            this.durability = durability;
+            this.hasMeta = hasMeta;
+            this.meta = meta;
+            this.displayName = displayName;
+            this.lore = lore;
+            this.enchantments = enchantments;
+            this.hash = Objects.hash(material, durability, hasMeta, meta, displayName, lore, enchantments);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FilterKey that = (FilterKey) o;
+            return hash == that.hash
+                    && durability == that.durability
+                    && hasMeta == that.hasMeta
+                    && material == that.material
+                    && Objects.equals(displayName, that.displayName)
+                    && Objects.equals(lore, that.lore)
+                    && Objects.equals(enchantments, that.enchantments)
+                    && Objects.equals(meta, that.meta);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
     public enum ResultType {
         ACCEPT,
         DENY_REDSTONE,
@@ -324,6 +482,7 @@ public class PipeOutput extends AbstractPipePart {
         public static final Option<Boolean> DROP = add(new Option<>("DROP", Option.GuiPosition.LEFT, Value.FALSE, Value.TRUE));
 
         protected static <T> Option<T> add(Option<T> option) {
+            option.setOrdinal(VALUES.size());
             VALUES.put(option.name().toLowerCase(), option);
             return option;
         }
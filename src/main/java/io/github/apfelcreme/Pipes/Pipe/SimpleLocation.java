@@ -1,6 +1,7 @@
 package io.github.apfelcreme.Pipes.Pipe;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -29,11 +30,20 @@ import java.util.Map;
  */
 public class SimpleLocation {
 
+    /**
+     * gets increased whenever a world unloads so that locations drop their cached world,
+     * volatile as locations are also resolved by the async pipe discovery
+     */
+    private static volatile int worldVersion = 0;
+
     private final String worldName;
     private final int x;
     private final int y;
     private final int z;
 
+    private World world = null;
+    private int cachedWorldVersion = -1;
+
     public SimpleLocation(String worldName, int x, int y, int z) {
         this.worldName = worldName;
         this.x = x;
@@ -42,7 +52,9 @@ public class SimpleLocation {
     }
 
     public SimpleLocation(Location location) {
-        this.worldName = location.getWorld().getName();
+        this.world = location.getWorld();
+        this.cachedWorldVersion = worldVersion;
+        this.worldName = world.getName();
         this.x = location.getBlockX();
         this.y = location.getBlockY();
         this.z = location.getBlockZ();
@@ -64,6 +76,28 @@ public class SimpleLocation {
         return worldName;
     }
 
+    /**
+     * returns the world of this location. The world is only looked up by its name once
+     * and then cached until a world gets unloaded.
+     *
+     * @return the world or <code>null</code> if it isn't loaded
+     */
+    public World getWorld() {
+        if (cachedWorldVersion != worldVersion || world == null) {
+            world = Bukkit.getServer().getWorld(worldName);
+            cachedWorldVersion = worldVersion;
+        }
+        return world;
+    }
+
+    /**
+     * Invalidate the cached worlds of all locations, this needs to be called when a world unloads
+     * and again once it is gone as the unloading world can still be looked up during the unload event
+     */
+    public static void invalidateWorlds() {
+        worldVersion++;
+    }
+
     /**
      * returns the x coordinate
      *
@@ -93,6 +127,77 @@ public class SimpleLocation {
         return z;
     }
 
+    /**
+     * returns the key of the chunk this location is in
+     *
+     * @return the chunk key
+     */
+    public long getChunkKey() {
+        return Chunk.getChunkKey(x >> 4, z >> 4);
+    }
+
+    /**
+     * returns the block key of this location, packed the same way as {@link Block#getBlockKey()}
+     *
+     * @return the block key
+     */
+    public long getBlockKey() {
+        return getBlockKey(x, y, z);
+    }
+
+    /**
+     * returns the block key of a position, packed the same way as {@link Block#getBlockKey(int, int, int)}
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @return the block key
+     */
+    public static long getBlockKey(int x, int y, int z) {
+        return ((long) x & 0x7FFFFFF) | (((long) z & 0x7FFFFFF) << 27) | ((long) y << 54);
+    }
+
+    /**
+     * returns the x coordinate of a block key
+     *
+     * @param blockKey the block key
+     * @return the x coordinate
+     */
+    public static int getBlockKeyX(long blockKey) {
+        return (int) (blockKey << 37 >> 37);
+    }
+
+    /**
+     * returns the y coordinate of a block key
+     *
+     * @param blockKey the block key
+     * @return the y coordinate
+     */
+    public static int getBlockKeyY(long blockKey) {
+        return (int) (blockKey >> 54);
+    }
+
+    /**
+     * returns the z coordinate of a block key
+     *
+     * @param blockKey the block key
+     * @return the z coordinate
+     */
+    public static int getBlockKeyZ(long blockKey) {
+        return (int) (blockKey << 10 >> 37);
+    }
+
+    /**
+     * creates a location from a packed block key
+     *
+     * @param worldName the name of the world
+     * @param blockKey  the block key as returned by {@link #getBlockKey()}
+     * @return the location
+     */
+    public static SimpleLocation fromBlockKey(String worldName, long blockKey) {
+        return new SimpleLocation(worldName, getBlockKeyX(blockKey), getBlockKeyY(blockKey), getBlockKeyZ(blockKey));
+    }
+
     /**
      * returns the location that faces the block location to the given side
      *
@@ -123,7 +228,7 @@ public class SimpleLocation {
      * @return a bukkit location
      */
     public Location getLocation() {
-        return new Location(Bukkit.getServer().getWorld(worldName), x, y, z);
+        return new Location(getWorld(), x, y, z);
     }
 
     /**
@@ -131,7 +236,7 @@ public class SimpleLocation {
      * @return a bukkit block
      */
     public Block getBlock() {
-        World world = Bukkit.getServer().getWorld(worldName);
+        World world = getWorld();
         if (world != null) {
             return world.getBlockAt(x, y, z);
         }
@@ -159,6 +264,19 @@ public class SimpleLocation {
 
     @Override
     public int hashCode() {
+        return hashCode(worldName, x, y, z);
+    }
+
+    /**
+     * returns the hash code that a location with these values has
+     *
+     * @param worldName the name of the world
+     * @param x         the x coordinate
+     * @param y         the y coordinate
+     * @param z         the z coordinate
+     * @return the hash code
+     */
+    public static int hashCode(String worldName, int x, int y, int z) {
         int hash = 42;
 
         hash = 31 * hash + worldName.hashCode();
@@ -166,7 +284,6 @@ public class SimpleLocation {
         hash = 23 * hash + y;
         hash = 23 * hash + z;
         return hash;
-
     }
 
     @Override
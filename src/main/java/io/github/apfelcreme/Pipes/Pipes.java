@@ -3,14 +3,19 @@ package io.github.apfelcreme.Pipes;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import io.github.apfelcreme.Pipes.Listener.BlockListener;
+import io.github.apfelcreme.Pipes.Listener.ChunkListener;
 import io.github.apfelcreme.Pipes.Listener.ConvertListener;
 import io.github.apfelcreme.Pipes.Listener.InventoryChangeListener;
 import io.github.apfelcreme.Pipes.Listener.PlayerListener;
 import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
+import io.github.apfelcreme.Pipes.Manager.PipeManager;
+import io.github.apfelcreme.Pipes.Manager.PipeStore;
 import net.md_5.bungee.api.ChatMessageType;
 import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ShapelessRecipe;
@@ -61,9 +66,16 @@ public class Pipes extends JavaPlugin {
         registeredRightClicks = CacheBuilder.newBuilder().expireAfterWrite(10, TimeUnit.SECONDS).build();
         PipesConfig.load();
         ItemMoveScheduler.load();
+        PipeStore.load();
         getServer().getPluginManager().registerEvents(new InventoryChangeListener(this), this);
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
         getServer().getPluginManager().registerEvents(new BlockListener(this), this);
+        getServer().getPluginManager().registerEvents(new ChunkListener(this), this);
+        for (World world : getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                PipeManager.getInstance().indexChunk(chunk);
+            }
+        }
         if (getConfig().getBoolean("convertToBlockInfoOnChunkLoad")) {
             getServer().getPluginManager().registerEvents(new ConvertListener(this), this);
         }
@@ -98,6 +110,7 @@ public class Pipes extends JavaPlugin {
     @Override
     public void onDisable() {
         ItemMoveScheduler.exit();
+        PipeStore.exit();
     }
 
     /**
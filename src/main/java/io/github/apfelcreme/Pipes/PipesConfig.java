@@ -8,6 +8,10 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -36,8 +40,20 @@ public class PipesConfig {
 
     private static Pipes plugin;
     private static long transferCooldown;
+    private static long transferTimeBudget;
+    private static int dormantTimeout;
+    private static long maxLookupBackoff;
+    private static boolean asyncDiscovery;
+    private static boolean bulkTransfers;
+    private static long topologySaveInterval;
+    private static int pipeRefreshBudget;
+    private static int discoveryBudget;
     private static int transferCount;
     private static double inputToOutputRatio;
+    private static Map<Material, Double> throughputRates;
+    private static Map<Material, Integer> throughputBursts;
+    private static double defaultThroughputRate;
+    private static int defaultThroughputBurst;
     private static int maxPipeOutputs;
     private static int maxPipeLength;
     private static boolean pistonUpdateCheck;
@@ -57,18 +73,33 @@ public class PipesConfig {
         plugin.saveResource("lang.de.yml", false);
         plugin.reloadConfig();
         transferCooldown = plugin.getConfig().getLong("transferCooldown");
+        transferTimeBudget = plugin.getConfig().getLong("transferTimeBudget");
+        dormantTimeout = plugin.getConfig().getInt("dormantTimeout");
+        maxLookupBackoff = plugin.getConfig().getLong("maxLookupBackoff");
+        asyncDiscovery = plugin.getConfig().getBoolean("asyncDiscovery");
+        bulkTransfers = plugin.getConfig().getBoolean("bulkTransfers");
+        topologySaveInterval = plugin.getConfig().getLong("topologySaveInterval");
+        pipeRefreshBudget = plugin.getConfig().getInt("pipeRefreshBudget");
+        discoveryBudget = plugin.getConfig().getInt("discoveryBudget");
         transferCount = plugin.getConfig().getInt("transferCount");
         inputToOutputRatio = plugin.getConfig().getDouble("inputToOutputRatio");
+        loadThroughput();
         maxPipeOutputs = plugin.getConfig().getInt("maxPipeOutputs");
         maxPipeLength = plugin.getConfig().getInt("maxPipeLength");
         pistonUpdateCheck = plugin.getConfig().getBoolean("pistonUpdateCheck");
         custommodelDataOffset = plugin.getConfig().getInt("custommodelDataOffset");
         languageConfig = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "lang.de.yml"));
+        // texts that were added after the file was saved fall back to the default ones
+        InputStream defaultLanguage = plugin.getResource("lang.de.yml");
+        if (defaultLanguage != null) {
+            languageConfig.setDefaults(YamlConfiguration.loadConfiguration(
+                    new InputStreamReader(defaultLanguage, StandardCharsets.UTF_8)));
+        }
         itemStacks = new HashMap<>();
     }
 
     /**
-     * returns the time that the cache stores all the locations of pipes
+     * returns the time after which a cached pipe is checked again in the background
      *
      * @return the delay of pipe recalculation in s
      */
@@ -94,6 +125,80 @@ public class PipesConfig {
         return transferCooldown;
     }
 
+    /**
+     * returns the time in microseconds that the scheduler may spend on transfers per tick, 0 to run all due transfers
+     *
+     * @return the transfer time budget per tick in microseconds
+     */
+    public static long getTransferTimeBudget() {
+        return transferTimeBudget;
+    }
+
+    /**
+     * returns the amount of ticks after which an input that couldn't move anything is checked again
+     * even if none of its targets lost items, 0 to never let inputs sleep
+     *
+     * @return the dormant timeout in ticks
+     */
+    public static int getDormantTimeout() {
+        return dormantTimeout;
+    }
+
+    /**
+     * returns the max amount of ticks an input whose pipe couldn't be calculated waits until it is checked again
+     *
+     * @return the max lookup backoff in ticks
+     */
+    public static long getMaxLookupBackoff() {
+        return maxLookupBackoff;
+    }
+
+    /**
+     * returns whether or not pipes of inputs should be searched on chunk snapshots outside of the main thread
+     *
+     * @return whether or not async discovery is enabled
+     */
+    public static boolean isAsyncDiscovery() {
+        return asyncDiscovery;
+    }
+
+    /**
+     * returns whether or not the items that an input moves into plain storage targets
+     * get collected and written to each target only once per transfer
+     *
+     * @return whether or not bulk transfers are enabled
+     */
+    public static boolean isBulkTransfers() {
+        return bulkTransfers;
+    }
+
+    /**
+     * returns the seconds between saves of the known pipes, 0 to only save them on shutdown
+     *
+     * @return the topology save interval in s
+     */
+    public static long getTopologySaveInterval() {
+        return topologySaveInterval;
+    }
+
+    /**
+     * returns the max amount of cached pipes that are checked again per tick, 0 for unlimited
+     *
+     * @return the pipe refresh budget per tick
+     */
+    public static int getPipeRefreshBudget() {
+        return pipeRefreshBudget;
+    }
+
+    /**
+     * returns the max amount of blocks that the searches for the pipes of inputs may check per tick, 0 for unlimited
+     *
+     * @return the discovery budget per tick
+     */
+    public static int getDiscoveryBudget() {
+        return discoveryBudget;
+    }
+
     /**
      * returns the max amount of item stacks transfered per pipe transfer
      *
@@ -148,6 +253,55 @@ public class PipesConfig {
         return custommodelDataOffset;
     }
 
+    /**
+     * loads the item throughput limits by glass type
+     */
+    private static void loadThroughput() {
+        throughputRates = new EnumMap<>(Material.class);
+        throughputBursts = new EnumMap<>(Material.class);
+        defaultThroughputRate = plugin.getConfig().getDouble("throughput.default.rate");
+        defaultThroughputBurst = plugin.getConfig().getInt("throughput.default.burst");
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("throughput");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                if ("default".equalsIgnoreCase(key)) {
+                    continue;
+                }
+                Material type = Material.getMaterial(key.toUpperCase());
+                if (type == null) {
+                    plugin.getLogger().log(Level.WARNING, key + " is not a valid Material name for a throughput limit!");
+                    continue;
+                }
+                throughputRates.put(type, section.getDouble(key + ".rate", defaultThroughputRate));
+                throughputBursts.put(type, section.getInt(key + ".burst", defaultThroughputBurst));
+            }
+        }
+    }
+
+    /**
+     * returns the max amount of items per second that a pipe of a glass type can move
+     *
+     * @param type the glass type of the pipe
+     * @return the items per second, 0 or less if it isn't limited
+     */
+    public static double getThroughputRate(Material type) {
+        return throughputRates.getOrDefault(type, defaultThroughputRate);
+    }
+
+    /**
+     * returns the max amount of items that a pipe of a glass type can move at once after it didn't move anything
+     *
+     * @param type the glass type of the pipe
+     * @return the burst amount, at least one item and the rate of one second if none is set
+     */
+    public static int getThroughputBurst(Material type) {
+        int burst = throughputBursts.getOrDefault(type, defaultThroughputBurst);
+        if (burst <= 0) {
+            burst = (int) Math.ceil(getThroughputRate(type));
+        }
+        return Math.max(burst, 1);
+    }
+
     /**
      * returns the materials and their quantity for a custom recipe
      *
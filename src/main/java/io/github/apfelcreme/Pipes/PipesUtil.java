@@ -364,6 +364,80 @@ public class PipesUtil {
         itemStack.setAmount(newAmount);
     }
 
+    /**
+     * Merge the similar stacks of an inventory and move them to the first slots, the same as clearing it and adding
+     * all items again would result in. Inventories with at most one stack are left alone and nothing is set if the
+     * slots wouldn't change, otherwise only the slots whose stack changes get set.
+     * @param inventory The inventory to compact
+     * @return Whether or not any slot was changed
+     */
+    public static boolean compactInventory(Inventory inventory) {
+        ItemStack[] contents = inventory.getStorageContents();
+        int stacks = 0;
+        for (ItemStack item : contents) {
+            if (item != null && item.getType() != Material.AIR && item.getAmount() > 0) {
+                stacks++;
+            }
+        }
+        if (stacks <= 1) {
+            return false;
+        }
+
+        // The stacks that each slot gets its item from after compacting and the new amounts
+        ItemStack[] compacted = new ItemStack[contents.length];
+        int[] amounts = new int[contents.length];
+        int used = 0;
+        for (ItemStack item : contents) {
+            if (item == null || item.getType() == Material.AIR || item.getAmount() <= 0) {
+                continue;
+            }
+            int maxStackSize = Math.min(inventory.getMaxStackSize(), item.getMaxStackSize());
+            int amount = item.getAmount();
+            for (int i = 0; i < used && amount > 0; i++) {
+                if (amounts[i] < maxStackSize && compacted[i].isSimilar(item)) {
+                    int added = Math.min(amount, maxStackSize - amounts[i]);
+                    amounts[i] += added;
+                    amount -= added;
+                }
+            }
+            while (amount > 0 && used < compacted.length) {
+                compacted[used] = item;
+                amounts[used] = Math.min(amount, maxStackSize);
+                amount -= amounts[used];
+                used++;
+            }
+        }
+
+        boolean[] changed = new boolean[contents.length];
+        boolean anyChanged = false;
+        for (int i = 0; i < contents.length; i++) {
+            ItemStack item = contents[i];
+            if (i >= used) {
+                changed[i] = item != null && item.getType() != Material.AIR;
+            } else {
+                changed[i] = compacted[i] != item || item.getAmount() != amounts[i];
+            }
+            anyChanged |= changed[i];
+        }
+        if (!anyChanged) {
+            return false;
+        }
+
+        for (int i = 0; i < contents.length; i++) {
+            if (!changed[i]) {
+                continue;
+            }
+            if (i >= used) {
+                inventory.setItem(i, null);
+            } else {
+                ItemStack stack = new ItemStack(compacted[i]);
+                stack.setAmount(amounts[i]);
+                inventory.setItem(i, stack);
+            }
+        }
+        return true;
+    }
+
     /**
      * Add fuel to an inventory that supports fuel
      * @param source The inventory that we move it from
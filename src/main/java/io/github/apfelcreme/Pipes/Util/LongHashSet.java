@@ -0,0 +1,220 @@
+package io.github.apfelcreme.Pipes.Util;
+
+/*
+ * Pipes
+ * Copyright (c) 2021 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A set of primitive longs using open addressing with linear probing, this avoids boxing every key
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private boolean containsEmpty = false;
+    private int size = 0;
+    private int mask;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private int index(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Add a key to the set
+     * @param key The key
+     * @return <code>true</code> if the key wasn't in the set yet
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int i = index(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        size++;
+        if (size * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether or not the set contains a key
+     * @param key The key
+     * @return <code>true</code> if the key is in the set
+     */
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsEmpty;
+        }
+        int i = index(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Remove a key from the set
+     * @param key The key
+     * @return <code>true</code> if the key was in the set
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!containsEmpty) {
+                return false;
+            }
+            containsEmpty = false;
+            size--;
+            return true;
+        }
+        int i = index(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = EMPTY;
+        size--;
+        // Shift following keys of the same probe sequence back so lookups don't stop at the gap
+        int gap = i;
+        i = (i + 1) & mask;
+        while (keys[i] != EMPTY) {
+            int home = index(keys[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                keys[i] = EMPTY;
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * Run an action for every key in the set
+     * @param action The action
+     */
+    public void forEach(LongConsumer action) {
+        if (containsEmpty) {
+            action.accept(EMPTY);
+        }
+        for (long key : keys) {
+            if (key != EMPTY) {
+                action.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Get a cursor to iterate over the keys without boxing them. The set must not be modified while iterating.
+     * @return A new cursor that is positioned before the first key
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public class Cursor {
+        private int index = containsEmpty ? -2 : -1;
+        private long current;
+
+        /**
+         * Move to the next key
+         * @return <code>true</code> if there was another key
+         */
+        public boolean next() {
+            if (index == -2) {
+                index = -1;
+                current = EMPTY;
+                return true;
+            }
+            while (++index < keys.length) {
+                if (keys[index] != EMPTY) {
+                    current = keys[index];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Get the key that the cursor is at
+         * @return The current key
+         */
+        public long get() {
+            return current;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                int i = index(key);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        containsEmpty = false;
+        size = 0;
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.apfelcreme.Pipes.Util;
+
+/*
+ * Pipes
+ * Copyright (c) 2021 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.NoSuchElementException;
+
+/**
+ * A first-in-first-out queue of primitive longs backed by a ring buffer that grows when it is full
+ */
+public class LongQueue {
+
+    private long[] elements;
+    private int head = 0;
+    private int size = 0;
+
+    public LongQueue() {
+        this(16);
+    }
+
+    public LongQueue(int capacity) {
+        elements = new long[Integer.highestOneBit(Math.max(2, capacity - 1)) << 1];
+    }
+
+    /**
+     * Add a value to the end of the queue
+     * @param value The value
+     */
+    public void add(long value) {
+        if (size == elements.length) {
+            long[] grown = new long[elements.length << 1];
+            int firstPart = elements.length - head;
+            System.arraycopy(elements, head, grown, 0, firstPart);
+            System.arraycopy(elements, 0, grown, firstPart, head);
+            elements = grown;
+            head = 0;
+        }
+        elements[(head + size) & (elements.length - 1)] = value;
+        size++;
+    }
+
+    /**
+     * Remove the value at the start of the queue
+     * @return The value
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public long remove() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        long value = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return value;
+    }
+
+    /**
+     * Copy the values of the queue into an array, in the order they would be removed in
+     * @return The values
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = elements[(head + i) & (elements.length - 1)];
+        }
+        return values;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}